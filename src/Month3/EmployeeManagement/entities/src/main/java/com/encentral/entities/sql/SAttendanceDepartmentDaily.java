@@ -0,0 +1,43 @@
+package com.encentral.entities.sql;
+
+import com.querydsl.core.types.dsl.DatePath;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.PrimaryKey;
+import com.querydsl.sql.RelationalPathBase;
+
+import java.sql.Date;
+import java.sql.Types;
+
+import static com.querydsl.core.types.PathMetadataFactory.forVariable;
+
+/**
+ * QueryDSL SQL model of the attendance_department_daily rollup, which has no entity.
+ * Written in the shape the generateSqlModels profile exports, which needs a live database.
+ */
+public class SAttendanceDepartmentDaily extends RelationalPathBase<SAttendanceDepartmentDaily> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final SAttendanceDepartmentDaily attendanceDepartmentDaily = new SAttendanceDepartmentDaily("attendance_department_daily");
+
+    public final StringPath department = createString("department");
+
+    public final DatePath<Date> date = createDate("date", Date.class);
+
+    public final NumberPath<Integer> presentCount = createNumber("presentCount", Integer.class);
+
+    public final PrimaryKey<SAttendanceDepartmentDaily> attendanceDepartmentDailyPkey = createPrimaryKey(department, date);
+
+    public SAttendanceDepartmentDaily(String variable) {
+        super(SAttendanceDepartmentDaily.class, forVariable(variable), "public", "attendance_department_daily");
+        addMetadata();
+    }
+
+    public void addMetadata() {
+        addMetadata(department, ColumnMetadata.named("department").withIndex(1).ofType(Types.VARCHAR).withSize(255).notNull());
+        addMetadata(date, ColumnMetadata.named("date").withIndex(2).ofType(Types.DATE).withSize(13).notNull());
+        addMetadata(presentCount, ColumnMetadata.named("present_count").withIndex(3).ofType(Types.INTEGER).withSize(10).notNull());
+    }
+}
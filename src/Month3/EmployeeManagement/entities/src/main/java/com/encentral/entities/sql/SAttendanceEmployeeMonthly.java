@@ -0,0 +1,43 @@
+package com.encentral.entities.sql;
+
+import com.querydsl.core.types.dsl.DatePath;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.PrimaryKey;
+import com.querydsl.sql.RelationalPathBase;
+
+import java.sql.Date;
+import java.sql.Types;
+
+import static com.querydsl.core.types.PathMetadataFactory.forVariable;
+
+/**
+ * QueryDSL SQL model of the attendance_employee_monthly rollup, which has no entity.
+ * Written in the shape the generateSqlModels profile exports, which needs a live database.
+ */
+public class SAttendanceEmployeeMonthly extends RelationalPathBase<SAttendanceEmployeeMonthly> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final SAttendanceEmployeeMonthly attendanceEmployeeMonthly = new SAttendanceEmployeeMonthly("attendance_employee_monthly");
+
+    public final StringPath employeeId = createString("employeeId");
+
+    public final DatePath<Date> month = createDate("month", Date.class);
+
+    public final NumberPath<Integer> presentDays = createNumber("presentDays", Integer.class);
+
+    public final PrimaryKey<SAttendanceEmployeeMonthly> attendanceEmployeeMonthlyPkey = createPrimaryKey(employeeId, month);
+
+    public SAttendanceEmployeeMonthly(String variable) {
+        super(SAttendanceEmployeeMonthly.class, forVariable(variable), "public", "attendance_employee_monthly");
+        addMetadata();
+    }
+
+    public void addMetadata() {
+        addMetadata(employeeId, ColumnMetadata.named("employee_id").withIndex(1).ofType(Types.VARCHAR).withSize(36).notNull());
+        addMetadata(month, ColumnMetadata.named("month").withIndex(2).ofType(Types.DATE).withSize(13).notNull());
+        addMetadata(presentDays, ColumnMetadata.named("present_days").withIndex(3).ofType(Types.INTEGER).withSize(10).notNull());
+    }
+}
@@ -0,0 +1,59 @@
+package com.encentral.entities.sql;
+
+import com.querydsl.core.types.dsl.DatePath;
+import com.querydsl.core.types.dsl.DateTimePath;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.PrimaryKey;
+import com.querydsl.sql.RelationalPathBase;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import static com.querydsl.core.types.PathMetadataFactory.forVariable;
+
+/**
+ * QueryDSL SQL model of the attendance_records table, for statements JPQL can't express.
+ * Written in the shape the generateSqlModels profile exports, which needs a live database.
+ */
+public class SAttendanceRecords extends RelationalPathBase<SAttendanceRecords> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final SAttendanceRecords attendanceRecords = new SAttendanceRecords("attendance_records");
+
+    public final StringPath id = createString("id");
+
+    public final StringPath employeeId = createString("employeeId");
+
+    public final DatePath<Date> date = createDate("date", Date.class);
+
+    public final StringPath status = createString("status");
+
+    public final DateTimePath<Timestamp> checkInTime = createDateTime("checkInTime", Timestamp.class);
+
+    public final DateTimePath<Timestamp> checkOutTime = createDateTime("checkOutTime", Timestamp.class);
+
+    public final DateTimePath<Timestamp> createdAt = createDateTime("createdAt", Timestamp.class);
+
+    public final DateTimePath<Timestamp> updatedAt = createDateTime("updatedAt", Timestamp.class);
+
+    public final PrimaryKey<SAttendanceRecords> attendanceRecordsPkey = createPrimaryKey(id);
+
+    public SAttendanceRecords(String variable) {
+        super(SAttendanceRecords.class, forVariable(variable), "public", "attendance_records");
+        addMetadata();
+    }
+
+    public void addMetadata() {
+        addMetadata(id, ColumnMetadata.named("id").withIndex(1).ofType(Types.VARCHAR).withSize(36).notNull());
+        addMetadata(employeeId, ColumnMetadata.named("employee_id").withIndex(2).ofType(Types.VARCHAR).withSize(36).notNull());
+        addMetadata(date, ColumnMetadata.named("date").withIndex(3).ofType(Types.DATE).withSize(13).notNull());
+        addMetadata(status, ColumnMetadata.named("status").withIndex(4).ofType(Types.OTHER).withSize(2147483647).notNull());
+        addMetadata(checkInTime, ColumnMetadata.named("check_in_time").withIndex(5).ofType(Types.TIMESTAMP).withSize(29).withDigits(6));
+        addMetadata(checkOutTime, ColumnMetadata.named("check_out_time").withIndex(6).ofType(Types.TIMESTAMP).withSize(29).withDigits(6));
+        addMetadata(createdAt, ColumnMetadata.named("created_at").withIndex(7).ofType(Types.TIMESTAMP).withSize(29).withDigits(6).notNull());
+        addMetadata(updatedAt, ColumnMetadata.named("updated_at").withIndex(8).ofType(Types.TIMESTAMP).withSize(29).withDigits(6).notNull());
+    }
+}
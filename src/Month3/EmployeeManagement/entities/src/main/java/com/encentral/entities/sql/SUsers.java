@@ -0,0 +1,63 @@
+package com.encentral.entities.sql;
+
+import com.querydsl.core.types.dsl.DateTimePath;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.PrimaryKey;
+import com.querydsl.sql.RelationalPathBase;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import static com.querydsl.core.types.PathMetadataFactory.forVariable;
+
+/**
+ * QueryDSL SQL model of the users table, for statements JPQL can't express.
+ * Written in the shape the generateSqlModels profile exports, which needs a live database.
+ */
+public class SUsers extends RelationalPathBase<SUsers> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final SUsers users = new SUsers("users");
+
+    public final StringPath id = createString("id");
+
+    public final StringPath email = createString("email");
+
+    public final StringPath password = createString("password");
+
+    public final StringPath firstName = createString("firstName");
+
+    public final StringPath lastName = createString("lastName");
+
+    public final StringPath role = createString("role");
+
+    public final StringPath department = createString("department");
+
+    public final DateTimePath<Timestamp> createdAt = createDateTime("createdAt", Timestamp.class);
+
+    public final DateTimePath<Timestamp> updatedAt = createDateTime("updatedAt", Timestamp.class);
+
+    public final StringPath token = createString("token");
+
+    public final PrimaryKey<SUsers> usersPkey = createPrimaryKey(id);
+
+    public SUsers(String variable) {
+        super(SUsers.class, forVariable(variable), "public", "users");
+        addMetadata();
+    }
+
+    public void addMetadata() {
+        addMetadata(id, ColumnMetadata.named("id").withIndex(1).ofType(Types.VARCHAR).withSize(36).notNull());
+        addMetadata(email, ColumnMetadata.named("email").withIndex(2).ofType(Types.VARCHAR).withSize(255).notNull());
+        addMetadata(password, ColumnMetadata.named("password").withIndex(3).ofType(Types.VARCHAR).withSize(255).notNull());
+        addMetadata(firstName, ColumnMetadata.named("first_name").withIndex(4).ofType(Types.VARCHAR).withSize(255).notNull());
+        addMetadata(lastName, ColumnMetadata.named("last_name").withIndex(5).ofType(Types.VARCHAR).withSize(255).notNull());
+        addMetadata(role, ColumnMetadata.named("role").withIndex(6).ofType(Types.OTHER).withSize(2147483647).notNull());
+        addMetadata(department, ColumnMetadata.named("department").withIndex(7).ofType(Types.VARCHAR).withSize(255));
+        addMetadata(createdAt, ColumnMetadata.named("created_at").withIndex(8).ofType(Types.TIMESTAMP).withSize(29).withDigits(6).notNull());
+        addMetadata(updatedAt, ColumnMetadata.named("updated_at").withIndex(9).ofType(Types.TIMESTAMP).withSize(29).withDigits(6).notNull());
+        addMetadata(token, ColumnMetadata.named("token").withIndex(10).ofType(Types.VARCHAR).withSize(36).notNull());
+    }
+}
@@ -0,0 +1,9 @@
+-- JpaUser.token was never created by the init script; every request looks a user up by it
+ALTER TABLE users ADD COLUMN IF NOT EXISTS token VARCHAR(36);
+
+UPDATE users SET token = md5(random()::text || id) WHERE token IS NULL;
+
+ALTER TABLE users ALTER COLUMN token SET NOT NULL;
+
+-- Unique index, so token lookups are an index probe rather than a table scan
+CREATE UNIQUE INDEX IF NOT EXISTS idx_users_token ON users(token);
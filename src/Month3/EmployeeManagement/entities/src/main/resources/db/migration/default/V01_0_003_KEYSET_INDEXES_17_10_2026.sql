@@ -0,0 +1,5 @@
+-- Employees and attendance are listed in (created_at, id) order and paged by that key, so
+-- each page is a range scan starting where the previous one ended
+CREATE INDEX IF NOT EXISTS idx_users_role_created_at_id ON users(role, created_at, id);
+
+CREATE INDEX IF NOT EXISTS idx_attendance_date_created_at_id ON attendance_records(date, created_at, id);
@@ -0,0 +1,59 @@
+-- Attendance reports read these pre-aggregated counts instead of attendance_records, so
+-- their cost depends on the period asked for, not on how much history is kept.
+-- Employees without a department are counted under ''.
+CREATE TABLE attendance_department_daily (
+    department VARCHAR(255) NOT NULL,
+    date DATE NOT NULL,
+    present_count INT NOT NULL,
+    PRIMARY KEY (department, date)
+);
+
+CREATE INDEX idx_attendance_department_daily_date ON attendance_department_daily(date);
+
+-- month is the first day of the month
+CREATE TABLE attendance_employee_monthly (
+    employee_id VARCHAR(36) NOT NULL,
+    month DATE NOT NULL,
+    present_days INT NOT NULL,
+    PRIMARY KEY (employee_id, month),
+    CONSTRAINT fk_attendance_monthly_employee FOREIGN KEY (employee_id)
+        REFERENCES users(id) ON DELETE CASCADE
+);
+
+-- Counted as each record is inserted, in the same transaction. Marks are inserted with
+-- ON CONFLICT DO NOTHING, singly or in batches, and may be replayed from the write-behind
+-- journal; a row trigger only fires for the ones that really were inserted.
+CREATE FUNCTION attendance_rollup_on_insert() RETURNS trigger AS $$
+BEGIN
+    IF NEW.status = 'PRESENT' THEN
+        INSERT INTO attendance_department_daily (department, date, present_count)
+        SELECT COALESCE(u.department, ''), NEW.date, 1 FROM users u WHERE u.id = NEW.employee_id
+        ON CONFLICT (department, date)
+            DO UPDATE SET present_count = attendance_department_daily.present_count + 1;
+
+        INSERT INTO attendance_employee_monthly (employee_id, month, present_days)
+        VALUES (NEW.employee_id, date_trunc('month', NEW.date)::date, 1)
+        ON CONFLICT (employee_id, month)
+            DO UPDATE SET present_days = attendance_employee_monthly.present_days + 1;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_attendance_rollup
+    AFTER INSERT ON attendance_records
+    FOR EACH ROW EXECUTE PROCEDURE attendance_rollup_on_insert();
+
+-- Existing history
+INSERT INTO attendance_department_daily (department, date, present_count)
+SELECT COALESCE(u.department, ''), a.date, COUNT(*)
+FROM attendance_records a
+JOIN users u ON u.id = a.employee_id
+WHERE a.status = 'PRESENT'
+GROUP BY COALESCE(u.department, ''), a.date;
+
+INSERT INTO attendance_employee_monthly (employee_id, month, present_days)
+SELECT a.employee_id, date_trunc('month', a.date)::date, COUNT(*)
+FROM attendance_records a
+WHERE a.status = 'PRESENT'
+GROUP BY a.employee_id, date_trunc('month', a.date)::date;
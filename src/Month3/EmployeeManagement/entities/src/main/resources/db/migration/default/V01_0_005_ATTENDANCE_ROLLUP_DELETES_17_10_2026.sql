@@ -0,0 +1,96 @@
+-- Keeps the attendance rollups in step with deleted records, and counts inserted ones once
+-- per statement instead of once per row.
+--
+-- Removing an employee cascades to their attendance_records. Their days are now taken back
+-- out of the rollups too, so department rates, which divide by the current headcount, never
+-- count the days of people who have left. The cascade itself runs once the users row is
+-- gone, when their department can no longer be looked up, so a trigger on users deletes the
+-- records first, while it still can.
+--
+-- Inserts are counted from the statement's transition table. A write-behind journal batch
+-- takes the lock on each (department, date) row once rather than once per mark, and in
+-- department order, so concurrent batches can't deadlock on them. Marks written
+-- synchronously are still one statement each, so during the 9:00 burst they queue on their
+-- department's row for the day until each one commits; enable
+-- employee.attendance.write-behind to have them counted per batch instead.
+--
+-- Transition tables need PostgreSQL 10.
+DROP TRIGGER trg_attendance_rollup ON attendance_records;
+DROP FUNCTION attendance_rollup_on_insert();
+
+CREATE FUNCTION attendance_rollup_on_insert() RETURNS trigger AS $$
+BEGIN
+    INSERT INTO attendance_department_daily (department, date, present_count)
+    SELECT COALESCE(u.department, ''), i.date, COUNT(*)
+    FROM inserted i
+    JOIN users u ON u.id = i.employee_id
+    WHERE i.status = 'PRESENT'
+    GROUP BY COALESCE(u.department, ''), i.date
+    ORDER BY 1, 2
+    ON CONFLICT (department, date)
+        DO UPDATE SET present_count = attendance_department_daily.present_count + EXCLUDED.present_count;
+
+    INSERT INTO attendance_employee_monthly (employee_id, month, present_days)
+    SELECT i.employee_id, date_trunc('month', i.date)::date, COUNT(*)
+    FROM inserted i
+    WHERE i.status = 'PRESENT'
+    GROUP BY i.employee_id, date_trunc('month', i.date)::date
+    ORDER BY 1, 2
+    ON CONFLICT (employee_id, month)
+        DO UPDATE SET present_days = attendance_employee_monthly.present_days + EXCLUDED.present_days;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_attendance_rollup
+    AFTER INSERT ON attendance_records
+    REFERENCING NEW TABLE AS inserted
+    FOR EACH STATEMENT EXECUTE PROCEDURE attendance_rollup_on_insert();
+
+CREATE FUNCTION attendance_rollup_on_delete() RETURNS trigger AS $$
+BEGIN
+    UPDATE attendance_department_daily d
+    SET present_count = d.present_count - r.removed
+    FROM (SELECT COALESCE(u.department, '') AS department, x.date, COUNT(*) AS removed
+          FROM deleted x
+          JOIN users u ON u.id = x.employee_id
+          WHERE x.status = 'PRESENT'
+          GROUP BY COALESCE(u.department, ''), x.date) r
+    WHERE d.department = r.department AND d.date = r.date;
+
+    UPDATE attendance_employee_monthly m
+    SET present_days = m.present_days - r.removed
+    FROM (SELECT x.employee_id, date_trunc('month', x.date)::date AS month, COUNT(*) AS removed
+          FROM deleted x
+          WHERE x.status = 'PRESENT'
+          GROUP BY x.employee_id, date_trunc('month', x.date)::date) r
+    WHERE m.employee_id = r.employee_id AND m.month = r.month;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_attendance_rollup_delete
+    AFTER DELETE ON attendance_records
+    REFERENCING OLD TABLE AS deleted
+    FOR EACH STATEMENT EXECUTE PROCEDURE attendance_rollup_on_delete();
+
+CREATE FUNCTION users_delete_attendance() RETURNS trigger AS $$
+BEGIN
+    DELETE FROM attendance_records WHERE employee_id = OLD.id;
+    RETURN OLD;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_users_delete_attendance
+    BEFORE DELETE ON users
+    FOR EACH ROW EXECUTE PROCEDURE users_delete_attendance();
+
+-- Employees removed since V01_0_004 left their days behind
+TRUNCATE attendance_department_daily;
+
+INSERT INTO attendance_department_daily (department, date, present_count)
+SELECT COALESCE(u.department, ''), a.date, COUNT(*)
+FROM attendance_records a
+JOIN users u ON u.id = a.employee_id
+WHERE a.status = 'PRESENT'
+GROUP BY COALESCE(u.department, ''), a.date;
@@ -1,16 +1,52 @@
 package com.encentral.event_management.api;
 
 import com.encentral.event_management.model.*;
+import java.io.InputStream;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.List;
-import java.util.Optional;
 
 public interface IEmployeeManagement {
     LoginResponse signIn(LoginRequest request);
     EmployeeResponse addEmployee(String adminToken, EmployeeRequest request);
     ApiResponse removeEmployee(String adminToken, String employeeId);
-    List<User> getEmployees(String adminToken);
+
+    /**
+     * Employees ordered by creation, {@code limit} at a time; pass the previous page's
+     * {@code nextCursor} to continue, or {@code null} to start.
+     */
+    Page<User> getEmployees(String adminToken, String cursor, int limit);
+
     AttendanceResponse markAttendance(String userToken);
-    List<Attendance> getDailyAttendance(String adminToken, LocalDate date);
+    Page<AttendanceReportRow> getDailyAttendance(String adminToken, LocalDate date, String cursor, int limit);
     ApiResponse updatePassword(String userToken, UpdatePasswordRequest request);
-}
\ No newline at end of file
+
+    /**
+     * Attendance of every department from {@code from} to {@code to}, both inclusive.
+     */
+    List<DepartmentAttendanceSummary> getDepartmentAttendance(String adminToken, LocalDate from, LocalDate to);
+
+    /**
+     * Attendance of one employee for each month from {@code from} to {@code to}, both inclusive.
+     */
+    List<EmployeeAttendanceSummary> getEmployeeAttendance(String adminToken, String employeeId, YearMonth from, YearMonth to);
+
+    /**
+     * The days of {@code month} an employee was present; open to admins and to the employee.
+     *
+     * @return {@code null} if the token may not see this employee's attendance
+     */
+    MonthlyPresence getMonthlyPresence(String userToken, String employeeId, YearMonth month);
+
+    /**
+     * Ids of the current employees who didn't mark attendance on {@code date}.
+     */
+    List<String> getAbsentees(String adminToken, LocalDate date);
+
+    /**
+     * Adds every employee listed in {@code input}, one per line, and reports each line's new
+     * id and PIN or the reason it was skipped. Lines are committed in chunks, so a failure
+     * part way leaves the earlier employees in place.
+     */
+    BulkImportResponse importEmployees(String adminToken, InputStream input, ImportFormat format);
+}
@@ -0,0 +1,28 @@
+package com.encentral.event_management.api;
+
+import com.encentral.event_management.model.*;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * {@link IEmployeeManagement} for callers that must not block: each call runs on a thread
+ * pool set aside for database work and completes when it is done.
+ */
+public interface IEmployeeManagementAsync {
+    CompletionStage<LoginResponse> signIn(LoginRequest request);
+    CompletionStage<EmployeeResponse> addEmployee(String adminToken, EmployeeRequest request);
+    CompletionStage<ApiResponse> removeEmployee(String adminToken, String employeeId);
+    CompletionStage<Page<User>> getEmployees(String adminToken, String cursor, int limit);
+    CompletionStage<AttendanceResponse> markAttendance(String userToken);
+    CompletionStage<Page<AttendanceReportRow>> getDailyAttendance(String adminToken, LocalDate date, String cursor, int limit);
+    CompletionStage<ApiResponse> updatePassword(String userToken, UpdatePasswordRequest request);
+    CompletionStage<List<DepartmentAttendanceSummary>> getDepartmentAttendance(String adminToken, LocalDate from, LocalDate to);
+    CompletionStage<List<EmployeeAttendanceSummary>> getEmployeeAttendance(String adminToken, String employeeId, YearMonth from, YearMonth to);
+    CompletionStage<MonthlyPresence> getMonthlyPresence(String userToken, String employeeId, YearMonth month);
+    CompletionStage<List<String>> getAbsentees(String adminToken, LocalDate date);
+
+    CompletionStage<BulkImportResponse> importEmployees(String adminToken, InputStream input, ImportFormat format);
+}
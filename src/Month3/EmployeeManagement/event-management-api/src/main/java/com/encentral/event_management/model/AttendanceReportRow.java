@@ -0,0 +1,25 @@
+package com.encentral.event_management.model;
+
+import com.encentral.entities.AttendanceStatus;
+import lombok.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * One line of a daily attendance report: the attendance record flattened together with the
+ * employee it belongs to, as read by a single join.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AttendanceReportRow {
+    private String attendanceId;
+    private String employeeId;
+    private String firstName;
+    private String lastName;
+    private String department;
+    private LocalDate date;
+    private AttendanceStatus status;
+    private LocalDateTime checkInTime;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,15 @@
+package com.encentral.event_management.model;
+
+import lombok.*;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkImportResponse {
+    private boolean success;
+    private String message;
+    private int imported;
+    private int failed;
+    private List<BulkImportRow> rows;
+}
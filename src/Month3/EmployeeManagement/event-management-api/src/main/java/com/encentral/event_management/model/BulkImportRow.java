@@ -0,0 +1,17 @@
+package com.encentral.event_management.model;
+
+import lombok.*;
+
+/**
+ * Outcome of one line of a bulk import: the new employee's id and PIN, or why the line was skipped.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkImportRow {
+    private int line;
+    private String email;
+    private String userId;
+    private String pin;
+    private String error;
+}
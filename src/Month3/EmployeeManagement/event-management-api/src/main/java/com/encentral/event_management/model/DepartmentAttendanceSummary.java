@@ -0,0 +1,22 @@
+package com.encentral.event_management.model;
+
+import lombok.*;
+import java.time.LocalDate;
+
+/**
+ * Attendance of one department over {@code from}..{@code to}. {@code rate} is
+ * {@code daysPresent} over {@code headcount * workdays}, where workdays stop at today and
+ * headcount is the department's current number of employees.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DepartmentAttendanceSummary {
+    private String department;
+    private LocalDate from;
+    private LocalDate to;
+    private long daysPresent;
+    private long headcount;
+    private int workdays;
+    private double rate;
+}
@@ -0,0 +1,19 @@
+package com.encentral.event_management.model;
+
+import lombok.*;
+import java.time.YearMonth;
+
+/**
+ * Attendance of one employee in one month; {@code rate} is {@code daysPresent} over the
+ * month's workdays up to today.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EmployeeAttendanceSummary {
+    private String employeeId;
+    private YearMonth month;
+    private int daysPresent;
+    private int workdays;
+    private double rate;
+}
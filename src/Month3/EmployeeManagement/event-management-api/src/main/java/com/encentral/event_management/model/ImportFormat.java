@@ -0,0 +1,10 @@
+package com.encentral.event_management.model;
+
+/**
+ * Formats a bulk employee import may come in: CSV with a header row naming the
+ * {@link EmployeeRequest} fields, or one JSON {@link EmployeeRequest} per line.
+ */
+public enum ImportFormat {
+    CSV,
+    NDJSON
+}
@@ -0,0 +1,20 @@
+package com.encentral.event_management.model;
+
+import lombok.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * The workdays of one month an employee was present on, out of the month's workdays up to today.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MonthlyPresence {
+    private String employeeId;
+    private YearMonth month;
+    private List<LocalDate> presentDates;
+    private int daysPresent;
+    private int workdays;
+}
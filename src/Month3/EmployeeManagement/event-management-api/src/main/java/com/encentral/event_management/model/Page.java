@@ -0,0 +1,16 @@
+package com.encentral.event_management.model;
+
+import lombok.*;
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated listing. {@code nextCursor} is passed back to fetch the
+ * following page, and is {@code null} on the last one.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Page<T> {
+    private List<T> items;
+    private String nextCursor;
+}
@@ -0,0 +1,254 @@
+package com.encentral.event_management.impl;
+
+import com.encentral.entities.UserRole;
+import play.db.jpa.JPAApi;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Who was present on which workday, held in memory as one int per employee per month with a
+ * bit per workday (see {@link WorkCalendar#workdayOfMonth}). Presence and absentee questions
+ * are then bit tests over an array instead of queries on attendance_records.
+ * <p>
+ * Employees get a slot, an index into each month's array, the first time they are seen; the
+ * employee list is read from the database on first use and kept current by
+ * {@link #addEmployee} and {@link #removeEmployee}, along with the day each was added so
+ * nobody is counted absent from before they joined. A month is read from attendance_records
+ * the first time it is asked about. Marks are recorded as they are accepted, whether or not
+ * their month has been read yet; reading only ever sets bits, so a mark recorded before or
+ * while its month is read is never lost, including one the write-behind journal hasn't
+ * inserted yet.
+ * <p>
+ * Months stay loaded; a month costs 4 bytes per employee. Only months from the first record
+ * to the current one are kept: any other month has no records, and is answered as empty
+ * without being stored, so asking about arbitrary months can't grow the index.
+ */
+@Singleton
+public class AttendanceBitmapIndex {
+
+    private final JPAApi jpaApi;
+    private final AttendanceRecordRepository attendanceRecords;
+
+    // Guarded by this
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<String> employeeIds = new ArrayList<>();
+    // By slot; null for anyone only seen through a mark
+    private final List<LocalDate> addedOn = new ArrayList<>();
+    private final BitSet activeSlots = new BitSet();
+    private final Set<String> removedEmployeeIds = new HashSet<>();
+
+    private final Object employeesLoadLock = new Object();
+    private volatile boolean employeesLoaded;
+    private final ConcurrentHashMap<YearMonth, MonthBitmap> months = new ConcurrentHashMap<>();
+    private volatile YearMonth firstMonth;
+
+    @Inject
+    public AttendanceBitmapIndex(JPAApi jpaApi, AttendanceRecordRepository attendanceRecords) {
+        this.jpaApi = jpaApi;
+        this.attendanceRecords = attendanceRecords;
+    }
+
+    /**
+     * Records that an employee was present on {@code date}, once the mark is durable.
+     */
+    public void markPresent(String employeeId, LocalDate date) {
+        if (!WorkCalendar.isWorkday(date)) {
+            return;
+        }
+        int slot = slot(employeeId);
+        months.computeIfAbsent(YearMonth.from(date), month -> new MonthBitmap()).set(slot, WorkCalendar.workdayOfMonth(date));
+    }
+
+    public synchronized void addEmployee(String employeeId) {
+        removedEmployeeIds.remove(employeeId);
+        activate(employeeId, LocalDate.now());
+    }
+
+    public synchronized void removeEmployee(String employeeId) {
+        removedEmployeeIds.add(employeeId);
+        Integer slot = slots.get(employeeId);
+        if (slot != null) {
+            activeSlots.clear(slot);
+        }
+    }
+
+    /**
+     * @return the workdays of {@code month} the employee was present on, in order
+     */
+    public List<LocalDate> presentDates(String employeeId, YearMonth month) {
+        Integer slot;
+        synchronized (this) {
+            slot = slots.get(employeeId);
+        }
+        int word = slot == null ? 0 : loaded(month).get(slot);
+
+        List<LocalDate> dates = new ArrayList<>(Integer.bitCount(word));
+        int workday = 0;
+        for (LocalDate date = month.atDay(1); !date.isAfter(month.atEndOfMonth()); date = date.plusDays(1)) {
+            if (WorkCalendar.isWorkday(date)) {
+                if ((word & (1 << workday)) != 0) {
+                    dates.add(date);
+                }
+                workday++;
+            }
+        }
+        return dates;
+    }
+
+    /**
+     * Current employees not present on {@code date}, leaving out anyone added after it;
+     * nobody is absent on a weekend or on a day still to come.
+     */
+    public List<String> absentees(LocalDate date) {
+        if (!WorkCalendar.isWorkday(date) || date.isAfter(LocalDate.now())) {
+            return List.of();
+        }
+        ensureEmployeesLoaded();
+        int[] words = loaded(YearMonth.from(date)).snapshot();
+
+        BitSet active;
+        String[] ids;
+        LocalDate[] added;
+        synchronized (this) {
+            active = (BitSet) activeSlots.clone();
+            ids = employeeIds.toArray(new String[0]);
+            added = addedOn.toArray(new LocalDate[0]);
+        }
+
+        int mask = 1 << WorkCalendar.workdayOfMonth(date);
+        List<String> absent = new ArrayList<>();
+        for (int slot = active.nextSetBit(0); slot >= 0; slot = active.nextSetBit(slot + 1)) {
+            if (added[slot] != null && added[slot].isAfter(date)) {
+                continue;
+            }
+            if (slot >= words.length || (words[slot] & mask) == 0) {
+                absent.add(ids[slot]);
+            }
+        }
+        return absent;
+    }
+
+    private synchronized int slot(String employeeId) {
+        Integer slot = slots.get(employeeId);
+        if (slot == null) {
+            slot = employeeIds.size();
+            employeeIds.add(employeeId);
+            addedOn.add(null);
+            slots.put(employeeId, slot);
+        }
+        return slot;
+    }
+
+    private synchronized void activate(String employeeId, LocalDate added) {
+        int slot = slot(employeeId);
+        activeSlots.set(slot);
+        addedOn.set(slot, added);
+    }
+
+    private void ensureEmployeesLoaded() {
+        if (employeesLoaded) {
+            return;
+        }
+        synchronized (employeesLoadLock) {
+            if (employeesLoaded) {
+                return;
+            }
+            List<Object[]> employees = jpaApi.withTransaction(em -> em.createQuery(
+                            "SELECT u.id, u.createdAt FROM JpaUser u WHERE u.role = :role", Object[].class)
+                    .setParameter("role", UserRole.EMPLOYEE)
+                    .getResultList());
+            synchronized (this) {
+                for (Object[] employee : employees) {
+                    String id = (String) employee[0];
+                    // Skip anyone removed while the query ran
+                    if (!removedEmployeeIds.contains(id)) {
+                        activate(id, ((LocalDateTime) employee[1]).toLocalDate());
+                    }
+                }
+            }
+            employeesLoaded = true;
+        }
+    }
+
+    private MonthBitmap loaded(YearMonth month) {
+        // Months already created by a mark, such as one replayed from the journal, are kept
+        if (!months.containsKey(month) && (month.isAfter(YearMonth.now()) || month.isBefore(firstMonth()))) {
+            return MonthBitmap.EMPTY;
+        }
+        MonthBitmap bitmap = months.computeIfAbsent(month, ignored -> new MonthBitmap());
+        if (!bitmap.loaded) {
+            synchronized (bitmap.loadLock) {
+                if (!bitmap.loaded) {
+                    attendanceRecords.forEachPresentDay(month.atDay(1), month.atEndOfMonth(), (employeeId, date) -> {
+                        if (WorkCalendar.isWorkday(date)) {
+                            bitmap.set(slot(employeeId), WorkCalendar.workdayOfMonth(date));
+                        }
+                    });
+                    bitmap.loaded = true;
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * The month of the oldest record, read once. With no records yet it is the current month,
+     * as every later mark is made at or after the time it is read.
+     */
+    private YearMonth firstMonth() {
+        YearMonth first = firstMonth;
+        if (first == null) {
+            LocalDate earliest = attendanceRecords.findEarliestDate();
+            first = earliest == null ? YearMonth.now() : YearMonth.from(earliest);
+            firstMonth = first;
+        }
+        return first;
+    }
+
+    private static class MonthBitmap {
+
+        // Any month without records; never set
+        private static final MonthBitmap EMPTY = new MonthBitmap(true);
+
+        private final Object loadLock = new Object();
+        private volatile boolean loaded;
+        // Guarded by this
+        private int[] words = new int[0];
+
+        MonthBitmap() {
+            this(false);
+        }
+
+        private MonthBitmap(boolean loaded) {
+            this.loaded = loaded;
+        }
+
+        synchronized void set(int slot, int workday) {
+            if (slot >= words.length) {
+                words = Arrays.copyOf(words, Math.max(slot + 1, words.length * 2));
+            }
+            words[slot] |= 1 << workday;
+        }
+
+        synchronized int get(int slot) {
+            return slot < words.length ? words[slot] : 0;
+        }
+
+        synchronized int[] snapshot() {
+            return words.clone();
+        }
+    }
+}
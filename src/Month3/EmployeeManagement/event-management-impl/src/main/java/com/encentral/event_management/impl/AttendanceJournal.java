@@ -0,0 +1,431 @@
+package com.encentral.event_management.impl;
+
+import com.typesafe.config.Config;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind path for attendance marks, enabled by
+ * {@code employee.attendance.write-behind.enabled}, that keeps the morning clock-in burst
+ * from taking a database connection per request.
+ * <p>
+ * A mark is acknowledged once it is appended and fsynced to a local journal file; marks that
+ * arrive while a write is in progress share the next one. A flusher then inserts them into
+ * attendance_records in batches, every {@code flush-interval} or as soon as
+ * {@code batch-size} are waiting, and empties the journal once everything in it is in the
+ * database. On startup whatever the journal still holds is inserted again; the inserts skip
+ * marks already there, so replaying one that was flushed before a crash does no harm. A last
+ * line left unfinished by a crash is cut off first.
+ * <p>
+ * Whether an employee already marked today is answered from memory, seeded from the
+ * database once a day.
+ */
+@Singleton
+public class AttendanceJournal {
+
+    private static final Logger.ALogger logger = Logger.of(AttendanceJournal.class);
+    private static final long WRITER_POLL_MILLIS = 100;
+    private static final int TAIL_SCAN_BYTES = 4096;
+
+    private final AttendanceRecordRepository repository;
+    private final AttendanceBitmapIndex attendanceIndex;
+    private final boolean enabled;
+    private final Path journalPath;
+    private final int batchSize;
+
+    private final BlockingQueue<PendingMark> toJournal = new LinkedBlockingQueue<>();
+    private final BlockingDeque<AttendanceMark> toInsert = new LinkedBlockingDeque<>();
+    private final AtomicLong journaled = new AtomicLong();
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicBoolean truncateRequested = new AtomicBoolean();
+    private final ReadWriteLock lifecycleLock = new ReentrantReadWriteLock();
+    private volatile boolean running;
+    private volatile MarkedDay markedDay;
+
+    private FileChannel channel;
+    private Thread writer;
+    private ScheduledExecutorService flusher;
+
+    @Inject
+    public AttendanceJournal(Config config, ApplicationLifecycle lifecycle, AttendanceRecordRepository repository,
+                             AttendanceBitmapIndex attendanceIndex) {
+        this.repository = repository;
+        this.attendanceIndex = attendanceIndex;
+        this.enabled = config.getBoolean("employee.attendance.write-behind.enabled");
+        this.journalPath = Paths.get(config.getString("employee.attendance.write-behind.journal"));
+        this.batchSize = config.getInt("employee.attendance.write-behind.batch-size");
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            Path directory = journalPath.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            replay();
+            channel = FileChannel.open(journalPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open attendance journal " + journalPath, e);
+        }
+
+        running = true;
+        writer = new Thread(this::writeLoop, "attendance-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        long flushIntervalMillis = config.getDuration("employee.attendance.write-behind.flush-interval").toMillis();
+        flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "attendance-journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+
+        lifecycle.addStopHook(() -> {
+            close();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Journals a clock-in.
+     *
+     * @return completes with {@code false} if the employee already marked that day, and with
+     * {@code true} once the mark is durable in the journal
+     */
+    public CompletableFuture<Boolean> mark(AttendanceMark mark) {
+        Set<String> marked;
+        PendingMark pending = new PendingMark(mark);
+        // Held while queueing, so close() can't stop the writer between the check and the add
+        lifecycleLock.readLock().lock();
+        try {
+            if (!running) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Attendance journal is closed"));
+            }
+            marked = markedOn(mark.getCheckInTime().toLocalDate());
+            if (!marked.add(mark.getEmployeeId())) {
+                return CompletableFuture.completedFuture(false);
+            }
+            toJournal.add(pending);
+        } finally {
+            lifecycleLock.readLock().unlock();
+        }
+        return pending.journaled.handle((ignored, error) -> {
+            if (error != null) {
+                // Not journaled, so the employee may try again
+                marked.remove(mark.getEmployeeId());
+                throw new RuntimeException("Failed to record attendance", error);
+            }
+            return true;
+        });
+    }
+
+    private Set<String> markedOn(LocalDate date) {
+        MarkedDay day = markedDay;
+        if (day != null && day.date.equals(date)) {
+            return day.employeeIds;
+        }
+        synchronized (this) {
+            day = markedDay;
+            if (day == null || !day.date.equals(date)) {
+                Set<String> employeeIds = ConcurrentHashMap.newKeySet();
+                employeeIds.addAll(repository.findEmployeeIdsMarkedOn(date));
+                // Replayed or journaled marks the flusher hasn't inserted yet
+                for (AttendanceMark mark : toInsert) {
+                    if (mark.getCheckInTime().toLocalDate().equals(date)) {
+                        employeeIds.add(mark.getEmployeeId());
+                    }
+                }
+                day = new MarkedDay(date, employeeIds);
+                markedDay = day;
+            }
+            return day.employeeIds;
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingMark> batch = new ArrayList<>();
+        while (running || !toJournal.isEmpty()) {
+            try {
+                PendingMark first = toJournal.poll(WRITER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    truncateIfInserted();
+                    continue;
+                }
+                batch.add(first);
+                toJournal.drainTo(batch);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Attendance journal writer failed", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<PendingMark> batch) {
+        StringBuilder lines = new StringBuilder();
+        for (PendingMark pending : batch) {
+            lines.append(toLine(pending.mark)).append('\n');
+        }
+        try {
+            ByteBuffer buffer = StandardCharsets.UTF_8.encode(lines.toString());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // One fsync for every mark that arrived while the previous one ran
+            channel.force(false);
+        } catch (IOException e) {
+            logger.error("Failed to write {} attendance marks to the journal", batch.size(), e);
+            batch.forEach(pending -> pending.journaled.completeExceptionally(e));
+            return;
+        }
+
+        journaled.addAndGet(batch.size());
+        batch.forEach(pending -> toInsert.add(pending.mark));
+        batch.forEach(pending -> pending.journaled.complete(null));
+        if (toInsert.size() >= batchSize) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    /**
+     * Empties the journal once every mark in it is in the database. Runs on the writer thread,
+     * so nothing can be appended between the check and the truncation.
+     */
+    private void truncateIfInserted() {
+        if (!truncateRequested.getAndSet(false) || inserted.get() != journaled.get()) {
+            return;
+        }
+        try {
+            if (channel.size() > 0) {
+                channel.truncate(0);
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to truncate attendance journal", e);
+        }
+    }
+
+    private void flush() {
+        List<AttendanceMark> batch = new ArrayList<>(batchSize);
+        while (toInsert.drainTo(batch, batchSize) > 0) {
+            int done = insert(batch);
+            if (done < batch.size()) {
+                // Put the rest back in order, to be retried on the next flush
+                for (int i = batch.size() - 1; i >= done; i--) {
+                    toInsert.addFirst(batch.get(i));
+                }
+                return;
+            }
+            batch.clear();
+        }
+        truncateRequested.set(true);
+    }
+
+    /**
+     * @return how many marks of {@code batch}, from the start, are done with: inserted, or
+     * rejected by a constraint and dropped
+     */
+    private int insert(List<AttendanceMark> batch) {
+        try {
+            repository.insertAllIfAbsent(batch);
+            inserted.addAndGet(batch.size());
+            return batch.size();
+        } catch (RuntimeException e) {
+            logger.warn("Batch insert of {} attendance marks failed, inserting one at a time", batch.size(), e);
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            AttendanceMark mark = batch.get(i);
+            try {
+                repository.insertIfAbsent(mark);
+            } catch (RuntimeException e) {
+                if (!isConstraintViolation(e)) {
+                    logger.error("Failed to insert attendance marks, retrying on the next flush", e);
+                    return i;
+                }
+                // Will never succeed, e.g. the employee was removed since
+                logger.error("Dropping attendance mark {} of employee {}", mark.getAttendanceId(), mark.getEmployeeId(), e);
+            }
+            inserted.incrementAndGet();
+        }
+        return batch.size();
+    }
+
+    private static boolean isConstraintViolation(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (sqlState != null && sqlState.startsWith("23")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        dropTornTail();
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                AttendanceMark mark = fromLine(line);
+                if (mark == null) {
+                    logger.warn("Skipping malformed attendance journal line: {}", line);
+                    continue;
+                }
+                toInsert.add(mark);
+                // Acknowledged before the crash, so already counted as present
+                attendanceIndex.markPresent(mark.getEmployeeId(), mark.getCheckInTime().toLocalDate());
+            }
+        }
+        journaled.set(toInsert.size());
+        if (!toInsert.isEmpty()) {
+            logger.info("Replaying {} attendance marks from {}", toInsert.size(), journalPath);
+        }
+    }
+
+    /**
+     * Cuts the journal back to its last complete line. A write cut short by a crash leaves a
+     * line without its newline; that mark was never acknowledged, and left in place the next
+     * mark appended would join it as one malformed line and be lost on the next replay.
+     */
+    private void dropTornTail() throws IOException {
+        try (FileChannel file = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = file.size();
+            ByteBuffer buffer = ByteBuffer.allocate(TAIL_SCAN_BYTES);
+            long position = end;
+            long complete = 0;
+            search:
+            while (position > 0) {
+                int length = (int) Math.min(TAIL_SCAN_BYTES, position);
+                position -= length;
+                buffer.clear().limit(length);
+                while (buffer.hasRemaining()) {
+                    file.read(buffer, position + buffer.position());
+                }
+                for (int i = length - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        complete = position + i + 1;
+                        break search;
+                    }
+                }
+            }
+            if (complete < end) {
+                logger.warn("Dropping {} bytes of an unfinished write from the end of {}", end - complete, journalPath);
+                file.truncate(complete);
+                file.force(false);
+            }
+        }
+    }
+
+    private void close() {
+        lifecycleLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            lifecycleLock.writeLock().unlock();
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+            flusher.shutdown();
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!writer.isAlive()) {
+            // Only if the writer gave up early; otherwise it journals everything queued
+            PendingMark pending;
+            while ((pending = toJournal.poll()) != null) {
+                pending.journaled.completeExceptionally(new IllegalStateException("Attendance journal is closed"));
+            }
+        }
+        // Whatever is still waiting; anything that fails stays in the journal for next time
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close attendance journal", e);
+        }
+    }
+
+    private static String toLine(AttendanceMark mark) {
+        return mark.getAttendanceId() + "," + mark.getEmployeeId() + "," + mark.getCheckInTime();
+    }
+
+    private static AttendanceMark fromLine(String line) {
+        String[] fields = line.split(",");
+        if (fields.length != 3) {
+            return null;
+        }
+        try {
+            return new AttendanceMark(fields[0], fields[1], LocalDateTime.parse(fields[2]));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static class PendingMark {
+
+        private final AttendanceMark mark;
+        private final CompletableFuture<Void> journaled = new CompletableFuture<>();
+
+        PendingMark(AttendanceMark mark) {
+            this.mark = mark;
+        }
+    }
+
+    private static class MarkedDay {
+
+        private final LocalDate date;
+        private final Set<String> employeeIds;
+
+        MarkedDay(LocalDate date, Set<String> employeeIds) {
+            this.date = date;
+            this.employeeIds = employeeIds;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.encentral.event_management.impl;
+
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * An employee clocking in, as written to attendance_records.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AttendanceMark {
+    private String attendanceId;
+    private String employeeId;
+    private LocalDateTime checkInTime;
+}
@@ -0,0 +1,174 @@
+package com.encentral.event_management.impl;
+
+import com.encentral.entities.AttendanceStatus;
+import com.encentral.event_management.model.AttendanceReportRow;
+import com.encentral.scaffold.commons.PostgresSqlQueryFactory;
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.core.QueryFlag;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.SQLQueryFactory;
+import com.querydsl.sql.StatementOptions;
+import com.querydsl.sql.dml.SQLInsertClause;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import static com.encentral.entities.sql.SAttendanceRecords.attendanceRecords;
+import static com.encentral.entities.sql.SUsers.users;
+
+/**
+ * Inserts into attendance_records that let the unique (employee_id, date) constraint decide
+ * whether a day is already marked, instead of checking first: a mark that would be a second
+ * one for its day is silently skipped, so inserting the same mark twice is harmless.
+ * <p>
+ * Reports are read as flat rows joined with users in one statement, never as entities whose
+ * lazy employee would be loaded one row at a time.
+ */
+@Singleton
+public class AttendanceRecordRepository {
+
+    private static final String ON_CONFLICT_DO_NOTHING = " on conflict (employee_id, date) do nothing";
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private final PostgresSqlQueryFactory sqlQueryFactory;
+
+    @Inject
+    public AttendanceRecordRepository(PostgresSqlQueryFactory sqlQueryFactory) {
+        this.sqlQueryFactory = sqlQueryFactory;
+    }
+
+    /**
+     * @return whether the mark was inserted, rather than its day already being marked
+     */
+    public boolean insertIfAbsent(AttendanceMark mark) {
+        return sqlQueryFactory.withTransaction(factory -> {
+            SQLInsertClause insert = insert(factory);
+            set(insert, mark);
+            return insert.execute();
+        }) > 0;
+    }
+
+    /**
+     * Inserts all marks as one JDBC batch in one transaction.
+     *
+     * @return how many were inserted
+     */
+    public long insertAllIfAbsent(List<AttendanceMark> marks) {
+        return sqlQueryFactory.withTransaction(factory -> {
+            SQLInsertClause insert = insert(factory);
+            for (AttendanceMark mark : marks) {
+                set(insert, mark);
+                insert.addBatch();
+            }
+            return insert.execute();
+        });
+    }
+
+    public List<String> findEmployeeIdsMarkedOn(LocalDate date) {
+        return sqlQueryFactory.withTransaction(factory -> factory
+                .select(attendanceRecords.employeeId)
+                .from(attendanceRecords)
+                .where(attendanceRecords.date.eq(Date.valueOf(date)))
+                .fetch());
+    }
+
+    /**
+     * @return the day of the oldest record, or {@code null} if there are none
+     */
+    public LocalDate findEarliestDate() {
+        Date earliest = sqlQueryFactory.withTransaction(factory -> factory
+                .select(attendanceRecords.date.min())
+                .from(attendanceRecords)
+                .fetchOne());
+        return earliest == null ? null : earliest.toLocalDate();
+    }
+
+    /**
+     * Hands the employee and date of every PRESENT record from {@code from} to {@code to},
+     * both inclusive, to {@code action} as they are read.
+     */
+    public void forEachPresentDay(LocalDate from, LocalDate to, BiConsumer<String, LocalDate> action) {
+        sqlQueryFactory.withTransaction(factory -> {
+            SQLQuery<Tuple> query = factory
+                    .select(attendanceRecords.employeeId, attendanceRecords.date)
+                    .from(attendanceRecords)
+                    .where(attendanceRecords.date.between(Date.valueOf(from), Date.valueOf(to)),
+                            attendanceRecords.status.eq(Expressions.stringTemplate(
+                                    "cast({0} as attendance_status)", AttendanceStatus.PRESENT.name())));
+            query.setStatementOptions(StatementOptions.builder().setFetchSize(STREAM_FETCH_SIZE).build());
+            try (CloseableIterator<Tuple> rows = query.iterate()) {
+                while (rows.hasNext()) {
+                    Tuple row = rows.next();
+                    action.accept(row.get(attendanceRecords.employeeId), row.get(attendanceRecords.date).toLocalDate());
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Up to {@code limit} records of {@code date} in (createdAt, id) order, starting after
+     * {@code after} ({@code null} for the first), each with its employee's name and
+     * department from the same join.
+     */
+    public List<AttendanceReportRow> findReportPage(LocalDate date, KeysetCursor after, int limit) {
+        return sqlQueryFactory.withTransaction(factory -> {
+            SQLQuery<Tuple> query = reportQuery(factory, date).limit(limit);
+            if (after != null) {
+                Timestamp createdAt = Timestamp.valueOf(after.getCreatedAt());
+                query.where(attendanceRecords.createdAt.gt(createdAt)
+                        .or(attendanceRecords.createdAt.eq(createdAt).and(attendanceRecords.id.gt(after.getId()))));
+            }
+            return query.fetch().stream()
+                    .map(AttendanceRecordRepository::toReportRow)
+                    .collect(Collectors.toList());
+        });
+    }
+
+    private static SQLQuery<Tuple> reportQuery(SQLQueryFactory factory, LocalDate date) {
+        return factory
+                .select(attendanceRecords.id, attendanceRecords.employeeId, users.firstName, users.lastName,
+                        users.department, attendanceRecords.date, attendanceRecords.status,
+                        attendanceRecords.checkInTime, attendanceRecords.createdAt)
+                .from(attendanceRecords)
+                .join(users).on(users.id.eq(attendanceRecords.employeeId))
+                .where(attendanceRecords.date.eq(Date.valueOf(date)))
+                .orderBy(attendanceRecords.createdAt.asc(), attendanceRecords.id.asc());
+    }
+
+    private static AttendanceReportRow toReportRow(Tuple row) {
+        Timestamp checkInTime = row.get(attendanceRecords.checkInTime);
+        return new AttendanceReportRow(
+                row.get(attendanceRecords.id),
+                row.get(attendanceRecords.employeeId),
+                row.get(users.firstName),
+                row.get(users.lastName),
+                row.get(users.department),
+                row.get(attendanceRecords.date).toLocalDate(),
+                AttendanceStatus.valueOf(row.get(attendanceRecords.status)),
+                checkInTime == null ? null : checkInTime.toLocalDateTime(),
+                row.get(attendanceRecords.createdAt).toLocalDateTime());
+    }
+
+    private static SQLInsertClause insert(SQLQueryFactory factory) {
+        return factory.insert(attendanceRecords)
+                .addFlag(QueryFlag.Position.END, ON_CONFLICT_DO_NOTHING);
+    }
+
+    private static void set(SQLInsertClause insert, AttendanceMark mark) {
+        insert.set(attendanceRecords.id, mark.getAttendanceId())
+                .set(attendanceRecords.employeeId, mark.getEmployeeId())
+                .set(attendanceRecords.date, Date.valueOf(mark.getCheckInTime().toLocalDate()))
+                .set(attendanceRecords.status, Expressions.stringTemplate(
+                        "cast({0} as attendance_status)", AttendanceStatus.PRESENT.name()))
+                .set(attendanceRecords.checkInTime, Timestamp.valueOf(mark.getCheckInTime()));
+    }
+}
@@ -0,0 +1,95 @@
+package com.encentral.event_management.impl;
+
+import com.encentral.entities.UserRole;
+import com.encentral.scaffold.commons.PostgresSqlQueryFactory;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.dsl.Expressions;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.encentral.entities.sql.SAttendanceDepartmentDaily.attendanceDepartmentDaily;
+import static com.encentral.entities.sql.SAttendanceEmployeeMonthly.attendanceEmployeeMonthly;
+import static com.encentral.entities.sql.SUsers.users;
+
+/**
+ * Reads the attendance rollups, which triggers on attendance_records keep up to date as
+ * marks are inserted and deleted, including when an employee is removed; see the V01_0_004
+ * and V01_0_005 migrations. Every query is bounded by the period it asks about, so a report
+ * costs the same however much history is kept.
+ * <p>
+ * Employees without a department are keyed by {@code ""}.
+ */
+@Singleton
+public class AttendanceRollupRepository {
+
+    private final PostgresSqlQueryFactory sqlQueryFactory;
+
+    @Inject
+    public AttendanceRollupRepository(PostgresSqlQueryFactory sqlQueryFactory) {
+        this.sqlQueryFactory = sqlQueryFactory;
+    }
+
+    /**
+     * Days present per department from {@code from} to {@code to}, both inclusive.
+     */
+    public Map<String, Long> sumPresentByDepartment(LocalDate from, LocalDate to) {
+        List<Tuple> rows = sqlQueryFactory.withTransaction(factory -> factory
+                .select(attendanceDepartmentDaily.department, attendanceDepartmentDaily.presentCount.sum())
+                .from(attendanceDepartmentDaily)
+                .where(attendanceDepartmentDaily.date.between(Date.valueOf(from), Date.valueOf(to)))
+                .groupBy(attendanceDepartmentDaily.department)
+                .fetch());
+
+        Map<String, Long> presentByDepartment = new HashMap<>();
+        for (Tuple row : rows) {
+            presentByDepartment.put(row.get(0, String.class), row.get(1, Number.class).longValue());
+        }
+        return presentByDepartment;
+    }
+
+    /**
+     * Current number of employees per department.
+     */
+    public Map<String, Long> countEmployeesByDepartment() {
+        List<Tuple> rows = sqlQueryFactory.withTransaction(factory -> factory
+                .select(users.department.coalesce("").asString(), users.id.count())
+                .from(users)
+                .where(users.role.eq(Expressions.stringTemplate("cast({0} as user_role)", UserRole.EMPLOYEE.name())))
+                .groupBy(users.department)
+                .fetch());
+
+        Map<String, Long> headcount = new HashMap<>();
+        for (Tuple row : rows) {
+            headcount.merge(row.get(0, String.class), row.get(1, Long.class), Long::sum);
+        }
+        return headcount;
+    }
+
+    /**
+     * Days present per month of {@code from} to {@code to}, both inclusive; months without
+     * any are left out.
+     */
+    public Map<YearMonth, Integer> findPresentDaysByMonth(String employeeId, YearMonth from, YearMonth to) {
+        List<Tuple> rows = sqlQueryFactory.withTransaction(factory -> factory
+                .select(attendanceEmployeeMonthly.month, attendanceEmployeeMonthly.presentDays)
+                .from(attendanceEmployeeMonthly)
+                .where(attendanceEmployeeMonthly.employeeId.eq(employeeId),
+                        attendanceEmployeeMonthly.month.between(
+                                Date.valueOf(from.atDay(1)), Date.valueOf(to.atDay(1))))
+                .fetch());
+
+        Map<YearMonth, Integer> presentDays = new HashMap<>();
+        for (Tuple row : rows) {
+            presentDays.put(YearMonth.from(row.get(attendanceEmployeeMonthly.month).toLocalDate()),
+                    row.get(attendanceEmployeeMonthly.presentDays));
+        }
+        return presentDays;
+    }
+}
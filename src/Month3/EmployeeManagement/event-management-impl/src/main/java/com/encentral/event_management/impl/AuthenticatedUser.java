@@ -0,0 +1,16 @@
+package com.encentral.event_management.impl;
+
+import com.encentral.entities.UserRole;
+import lombok.*;
+
+/**
+ * What the role checks need to know about the owner of a token, small enough to cache.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AuthenticatedUser {
+    private String id;
+    private UserRole role;
+    private String department;
+}
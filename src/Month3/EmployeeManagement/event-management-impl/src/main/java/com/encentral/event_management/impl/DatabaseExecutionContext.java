@@ -0,0 +1,20 @@
+package com.encentral.event_management.impl;
+
+import akka.actor.ActorSystem;
+import play.libs.concurrent.CustomExecutionContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Runs blocking JDBC work. Backed by the {@code database.dispatcher} thread pool, which is
+ * sized to the Hikari pool so every thread can hold a connection and none queue for one.
+ */
+@Singleton
+public class DatabaseExecutionContext extends CustomExecutionContext {
+
+    @Inject
+    public DatabaseExecutionContext(ActorSystem actorSystem) {
+        super(actorSystem, "database.dispatcher");
+    }
+}
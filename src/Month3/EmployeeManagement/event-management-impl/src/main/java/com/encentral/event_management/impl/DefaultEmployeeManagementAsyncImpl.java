@@ -0,0 +1,101 @@
+package com.encentral.event_management.impl;
+
+import com.encentral.event_management.api.IEmployeeManagement;
+import com.encentral.event_management.api.IEmployeeManagementAsync;
+import com.encentral.event_management.model.*;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Runs {@link IEmployeeManagement} on the {@link DatabaseExecutionContext}. Every call may
+ * hold a connection, so the pool is sized to the connection pool: excess calls queue for a
+ * thread here instead of parking request threads on a connection. Calls that hash a password
+ * do so on the {@link PasswordHashingExecutionContext} in between their database work.
+ */
+@Singleton
+public class DefaultEmployeeManagementAsyncImpl implements IEmployeeManagementAsync {
+
+    private final DefaultEmployeeManagementImpl employeeManagement;
+    private final DatabaseExecutionContext executionContext;
+
+    @Inject
+    public DefaultEmployeeManagementAsyncImpl(DefaultEmployeeManagementImpl employeeManagement,
+                                              DatabaseExecutionContext executionContext) {
+        this.employeeManagement = employeeManagement;
+        this.executionContext = executionContext;
+    }
+
+    @Override
+    public CompletionStage<LoginResponse> signIn(LoginRequest request) {
+        return employeeManagement.signIn(request, executionContext);
+    }
+
+    @Override
+    public CompletionStage<EmployeeResponse> addEmployee(String adminToken, EmployeeRequest request) {
+        return employeeManagement.addEmployee(adminToken, request, executionContext);
+    }
+
+    @Override
+    public CompletionStage<ApiResponse> removeEmployee(String adminToken, String employeeId) {
+        return CompletableFuture.supplyAsync(() -> employeeManagement.removeEmployee(adminToken, employeeId), executionContext);
+    }
+
+    @Override
+    public CompletionStage<Page<User>> getEmployees(String adminToken, String cursor, int limit) {
+        return CompletableFuture.supplyAsync(() -> employeeManagement.getEmployees(adminToken, cursor, limit), executionContext);
+    }
+
+    @Override
+    public CompletionStage<AttendanceResponse> markAttendance(String userToken) {
+        return CompletableFuture.supplyAsync(() -> employeeManagement.markAttendance(userToken), executionContext);
+    }
+
+    @Override
+    public CompletionStage<Page<AttendanceReportRow>> getDailyAttendance(String adminToken, LocalDate date,
+                                                                        String cursor, int limit) {
+        return CompletableFuture.supplyAsync(
+                () -> employeeManagement.getDailyAttendance(adminToken, date, cursor, limit), executionContext);
+    }
+
+    @Override
+    public CompletionStage<ApiResponse> updatePassword(String userToken, UpdatePasswordRequest request) {
+        return employeeManagement.updatePassword(userToken, request, executionContext);
+    }
+
+    @Override
+    public CompletionStage<List<DepartmentAttendanceSummary>> getDepartmentAttendance(String adminToken,
+                                                                                     LocalDate from, LocalDate to) {
+        return CompletableFuture.supplyAsync(
+                () -> employeeManagement.getDepartmentAttendance(adminToken, from, to), executionContext);
+    }
+
+    @Override
+    public CompletionStage<List<EmployeeAttendanceSummary>> getEmployeeAttendance(String adminToken, String employeeId,
+                                                                                 YearMonth from, YearMonth to) {
+        return CompletableFuture.supplyAsync(
+                () -> employeeManagement.getEmployeeAttendance(adminToken, employeeId, from, to), executionContext);
+    }
+
+    @Override
+    public CompletionStage<MonthlyPresence> getMonthlyPresence(String userToken, String employeeId, YearMonth month) {
+        return CompletableFuture.supplyAsync(
+                () -> employeeManagement.getMonthlyPresence(userToken, employeeId, month), executionContext);
+    }
+
+    @Override
+    public CompletionStage<List<String>> getAbsentees(String adminToken, LocalDate date) {
+        return CompletableFuture.supplyAsync(() -> employeeManagement.getAbsentees(adminToken, date), executionContext);
+    }
+
+    @Override
+    public CompletionStage<BulkImportResponse> importEmployees(String adminToken, InputStream input, ImportFormat format) {
+        return employeeManagement.importEmployees(adminToken, input, format, executionContext);
+    }
+}
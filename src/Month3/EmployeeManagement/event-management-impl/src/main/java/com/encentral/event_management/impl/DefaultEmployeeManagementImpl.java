@@ -1,6 +1,6 @@
 package com.encentral.event_management.impl;
 
-import com.encentral.entities.JpaAttendance;
+import com.encentral.entities.AttendanceStatus;
 import com.encentral.entities.JpaUser;
 import com.encentral.entities.UserRole;
 import com.encentral.event_management.api.IEmployeeManagement;
@@ -8,57 +8,163 @@ import com.encentral.event_management.model.*;
 import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
-import java.time.DayOfWeek;
+import javax.inject.Singleton;
+import javax.persistence.TypedQuery;
+import java.io.InputStream;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+/**
+ * Signing in, adding or importing employees and changing a password hash on the
+ * {@link PasswordHashingExecutionContext}. Each has a variant taking the executor for its
+ * database work, which {@link DefaultEmployeeManagementAsyncImpl} uses so that no database
+ * thread waits on a hash; the {@link IEmployeeManagement} methods run that work on the
+ * calling thread and wait for the result.
+ */
+@Singleton
 public class DefaultEmployeeManagementImpl implements IEmployeeManagement {
+    private static final String PERSISTENCE_UNIT = "default";
+    private static final int MAX_PAGE_SIZE = 1000;
+
     private final JPAApi jpaApi;
+    private final AttendanceRecordRepository attendanceRecords;
+    private final AttendanceRollupRepository attendanceRollups;
+    private final AttendanceBitmapIndex attendanceIndex;
+    private final AttendanceJournal attendanceJournal;
+    private final TokenCache tokenCache;
+    private final LoginCache loginCache;
+    private final PasswordHasher passwordHasher;
+    private final PasswordHashingExecutionContext hashingContext;
+    private final EmployeeImporter employeeImporter;
 
     @Inject
-    public DefaultEmployeeManagementImpl(JPAApi jpaApi) {
+    public DefaultEmployeeManagementImpl(JPAApi jpaApi, AttendanceRecordRepository attendanceRecords,
+                                         AttendanceRollupRepository attendanceRollups,
+                                         AttendanceBitmapIndex attendanceIndex,
+                                         AttendanceJournal attendanceJournal, TokenCache tokenCache,
+                                         LoginCache loginCache, PasswordHasher passwordHasher,
+                                         PasswordHashingExecutionContext hashingContext,
+                                         EmployeeImporter employeeImporter) {
         this.jpaApi = jpaApi;
+        this.attendanceRecords = attendanceRecords;
+        this.attendanceRollups = attendanceRollups;
+        this.attendanceIndex = attendanceIndex;
+        this.attendanceJournal = attendanceJournal;
+        this.tokenCache = tokenCache;
+        this.loginCache = loginCache;
+        this.passwordHasher = passwordHasher;
+        this.hashingContext = hashingContext;
+        this.employeeImporter = employeeImporter;
     }
 
     @Override
     public LoginResponse signIn(LoginRequest request) {
-        return jpaApi.withTransaction(em -> {
-            JpaUser user = em.createQuery(
-                            "SELECT u FROM JpaUser u WHERE u.email = :email", JpaUser.class)
-                    .setParameter("email", request.getEmail())
-                    .getResultList()
-                    .stream().findFirst()
-                    .orElse(null);
+        return signIn(request, Runnable::run).toCompletableFuture().join();
+    }
 
-            if (user == null) {
-                return new LoginResponse(null, "Invalid email or password", null);
-            }
+    public CompletionStage<LoginResponse> signIn(LoginRequest request, Executor databaseExecutor) {
+        String email = request.getEmail();
+        String password = request.getPassword();
+        if (email == null || password == null) {
+            return CompletableFuture.completedFuture(new LoginResponse(null, "Invalid email or password", null));
+        }
 
-            if (!user.getPassword().equals(request.getPassword())) {
-                return new LoginResponse(null, "Invalid email or password", null);
-            }
+        Optional<LoginResponse> cached = loginCache.get(email, password);
+        if (cached.isPresent()) {
+            return CompletableFuture.completedFuture(cached.get());
+        }
 
-            return new LoginResponse(
-                    user.getToken(),
-                    "Login successful",
-                    UserMapper.jpaUserToUser(user)
-            );
-        });
+        long stamp = loginCache.stamp();
+        return CompletableFuture.supplyAsync(() -> findUserByEmail(email), databaseExecutor)
+                // Verified outside the transaction, so a connection isn't held for the hash
+                .thenApplyAsync(user -> verifyLogin(user, password), hashingContext)
+                .thenCompose(login -> login == null || login.rehashed == null
+                        ? CompletableFuture.completedFuture(login)
+                        : CompletableFuture.supplyAsync(() -> saveRehash(login), databaseExecutor))
+                .thenApply(login -> {
+                    if (login == null) {
+                        return new LoginResponse(null, "Invalid email or password", null);
+                    }
+                    LoginResponse response = new LoginResponse(
+                            login.user.getToken(),
+                            "Login successful",
+                            UserMapper.jpaUserToUser(login.user)
+                    );
+                    loginCache.put(email, password, login.user.getId(), response, stamp);
+                    return response;
+                });
+    }
+
+    private JpaUser findUserByEmail(String email) {
+        return jpaApi.withTransaction(PERSISTENCE_UNIT, true, em -> em.createQuery(
+                        "SELECT u FROM JpaUser u WHERE u.email = :email", JpaUser.class)
+                .setParameter("email", email)
+                .getResultList()
+                .stream().findFirst()
+                .orElse(null));
+    }
+
+    /**
+     * @return {@code null} if there is no such user or the password is wrong
+     */
+    private VerifiedLogin verifyLogin(JpaUser user, String password) {
+        if (user == null) {
+            passwordHasher.verifyAgainstDummy(password);
+            return null;
+        }
+        String stored = user.getPassword();
+        if (!passwordHasher.verify(password, stored)) {
+            return null;
+        }
+        String rehashed = passwordHasher.needsRehash(stored) ? passwordHasher.hash(password) : null;
+        return new VerifiedLogin(user, stored, rehashed);
+    }
+
+    private VerifiedLogin saveRehash(VerifiedLogin login) {
+        // Only if the password hasn't been changed meanwhile
+        jpaApi.withTransaction(em -> em.createQuery(
+                        "UPDATE JpaUser u SET u.password = :rehashed WHERE u.id = :id AND u.password = :stored")
+                .setParameter("rehashed", login.rehashed)
+                .setParameter("id", login.user.getId())
+                .setParameter("stored", login.stored)
+                .executeUpdate());
+        return login;
     }
 
     @Override
     public EmployeeResponse addEmployee(String adminToken, EmployeeRequest request) {
-        return jpaApi.withTransaction(em -> {
-            JpaUser admin = findUserByToken(em, adminToken);
+        return addEmployee(adminToken, request, Runnable::run).toCompletableFuture().join();
+    }
+
+    public CompletionStage<EmployeeResponse> addEmployee(String adminToken, EmployeeRequest request,
+                                                         Executor databaseExecutor) {
+        String pin = passwordHasher.newPin();
+        return CompletableFuture.supplyAsync(() -> authenticate(adminToken), databaseExecutor).thenCompose(admin -> {
             if (admin == null || admin.getRole() != UserRole.ADMIN) {
-                return new EmployeeResponse("Unauthorized. Admin access required", null, null);
+                return CompletableFuture.completedFuture(
+                        new EmployeeResponse("Unauthorized. Admin access required", null, null));
             }
+            return CompletableFuture.supplyAsync(() -> passwordHasher.hash(pin), hashingContext)
+                    .thenApplyAsync(pinHash -> insertEmployee(request, pin, pinHash), databaseExecutor);
+        });
+    }
 
+    private EmployeeResponse insertEmployee(EmployeeRequest request, String pin, String pinHash) {
+        EmployeeResponse response = jpaApi.withTransaction(em -> {
             // Check if email already exists
             long count = em.createQuery(
                             "SELECT COUNT(u) FROM JpaUser u WHERE u.email = :email", Long.class)
@@ -69,13 +175,11 @@ public class DefaultEmployeeManagementImpl implements IEmployeeManagement {
                 return new EmployeeResponse("Email already exists", null, null);
             }
 
-            // Generate 4-digit pin
-            String pin = String.format("%04d", new Random().nextInt(10000));
             String token = UUID.randomUUID().toString();
 
             JpaUser employee = new JpaUser(
                     request.getEmail(),
-                    pin,
+                    pinHash,
                     request.getFirstName(),
                     request.getLastName(),
                     UserRole.EMPLOYEE,
@@ -91,16 +195,20 @@ public class DefaultEmployeeManagementImpl implements IEmployeeManagement {
                     UserMapper.jpaUserToUser(employee)
             );
         });
+        if (response.getEmployee() != null) {
+            attendanceIndex.addEmployee(response.getEmployee().getUserId());
+        }
+        return response;
     }
 
     @Override
     public ApiResponse removeEmployee(String adminToken, String employeeId) {
-        return jpaApi.withTransaction(em -> {
-            JpaUser admin = findUserByToken(em, adminToken);
-            if (admin == null || admin.getRole() != UserRole.ADMIN) {
-                return new ApiResponse(false, "Unauthorized. Admin access required");
-            }
+        AuthenticatedUser admin = authenticate(adminToken);
+        if (admin == null || admin.getRole() != UserRole.ADMIN) {
+            return new ApiResponse(false, "Unauthorized. Admin access required");
+        }
 
+        ApiResponse response = jpaApi.withTransaction(em -> {
             JpaUser employee = em.find(JpaUser.class, employeeId);
             if (employee == null) {
                 return new ApiResponse(false, "Employee not found");
@@ -113,134 +221,294 @@ public class DefaultEmployeeManagementImpl implements IEmployeeManagement {
             em.remove(employee);
             return new ApiResponse(true, "Employee removed successfully");
         });
+        tokenCache.invalidateUser(employeeId);
+        loginCache.invalidateUser(employeeId);
+        if (response.isSuccess()) {
+            attendanceIndex.removeEmployee(employeeId);
+        }
+        return response;
     }
 
     @Override
-    public List<User> getEmployees(String adminToken) {
-        return jpaApi.withTransaction(em -> {
-            JpaUser admin = findUserByToken(em, adminToken);
-            if (admin == null || admin.getRole() != UserRole.ADMIN) {
-                return List.of();
-            }
+    public Page<User> getEmployees(String adminToken, String cursor, int limit) {
+        AuthenticatedUser admin = authenticate(adminToken);
+        if (admin == null || admin.getRole() != UserRole.ADMIN) {
+            return new Page<>(List.of(), null);
+        }
 
-            List<JpaUser> employees = em.createQuery(
-                            "SELECT u FROM JpaUser u WHERE u.role = :role", JpaUser.class)
+        KeysetCursor after = KeysetCursor.decode(cursor);
+        int pageSize = pageSize(limit);
+        return jpaApi.withTransaction(PERSISTENCE_UNIT, true, em -> {
+            TypedQuery<JpaUser> query = em.createQuery(
+                            "SELECT u FROM JpaUser u WHERE u.role = :role"
+                                    + (after == null ? "" : " AND (u.createdAt > :createdAt"
+                                    + " OR (u.createdAt = :createdAt AND u.id > :id))")
+                                    + " ORDER BY u.createdAt, u.id", JpaUser.class)
                     .setParameter("role", UserRole.EMPLOYEE)
-                    .getResultList();
+                    .setMaxResults(pageSize + 1);
+            if (after != null) {
+                query.setParameter("createdAt", after.getCreatedAt()).setParameter("id", after.getId());
+            }
 
-            return employees.stream()
-                    .map(UserMapper::jpaUserToUser)
-                    .collect(Collectors.toList());
+            return toPage(query.getResultList(), pageSize,
+                    employee -> new KeysetCursor(employee.getCreatedAt(), employee.getId()),
+                    UserMapper::jpaUserToUser);
         });
     }
 
     @Override
     public AttendanceResponse markAttendance(String userToken) {
-        return jpaApi.withTransaction(em -> {
-            JpaUser user = findUserByToken(em, userToken);
-            if (user == null) {
-                return new AttendanceResponse(false, "Invalid token", null);
-            }
+        AuthenticatedUser user = authenticate(userToken);
+        if (user == null) {
+            return new AttendanceResponse(false, "Invalid token", null);
+        }
 
-            if (user.getRole() != UserRole.EMPLOYEE) {
-                return new AttendanceResponse(false, "Only employees can mark attendance", null);
-            }
+        if (user.getRole() != UserRole.EMPLOYEE) {
+            return new AttendanceResponse(false, "Only employees can mark attendance", null);
+        }
 
-            LocalDateTime now = LocalDateTime.now();
-            LocalDate today = now.toLocalDate();
-            LocalTime currentTime = now.toLocalTime();
-            DayOfWeek dayOfWeek = today.getDayOfWeek();
+        LocalDateTime now = LocalDateTime.now();
+        LocalDate today = now.toLocalDate();
+        LocalTime currentTime = now.toLocalTime();
 
-            // Check if weekend
-            if (dayOfWeek == DayOfWeek.SATURDAY || dayOfWeek == DayOfWeek.SUNDAY) {
-                return new AttendanceResponse(false, "It's not a work day", null);
-            }
+        // Check if weekend
+        if (!WorkCalendar.isWorkday(today)) {
+            return new AttendanceResponse(false, "It's not a work day", null);
+        }
 
-            // Check if too early (before 9 AM)
-            if (currentTime.isBefore(LocalTime.of(9, 0))) {
-                return new AttendanceResponse(false, "Too early to mark attendance", null);
-            }
+        // Check if too early (before 9 AM)
+        if (currentTime.isBefore(LocalTime.of(9, 0))) {
+            return new AttendanceResponse(false, "Too early to mark attendance", null);
+        }
 
-            // Check if too late (after 5 PM)
-            if (currentTime.isAfter(LocalTime.of(17, 0))) {
-                return new AttendanceResponse(false, "Too late to mark attendance", null);
-            }
+        // Check if too late (after 5 PM)
+        if (currentTime.isAfter(LocalTime.of(17, 0))) {
+            return new AttendanceResponse(false, "Too late to mark attendance", null);
+        }
 
-            // Check if already marked today
-            long count = em.createQuery(
-                            "SELECT COUNT(a) FROM JpaAttendance a WHERE a.employee = :employee AND a.date = :date",
-                            Long.class)
-                    .setParameter("employee", user)
-                    .setParameter("date", today)
-                    .getSingleResult();
+        // Mark attendance in a single statement: the unique (employee_id, date) constraint
+        // decides whether today is already marked, so two concurrent requests can't both
+        // pass a check and then collide on the insert. In write-behind mode the mark is
+        // journaled now and inserted with the next batch.
+        AttendanceMark mark = new AttendanceMark(UUID.randomUUID().toString(), user.getId(), now);
+        boolean marked = attendanceJournal.isEnabled()
+                ? attendanceJournal.mark(mark).join()
+                : attendanceRecords.insertIfAbsent(mark);
+
+        if (!marked) {
+            return new AttendanceResponse(false, "Attendance already marked for today", null);
+        }
+        attendanceIndex.markPresent(user.getId(), today);
 
-            if (count > 0) {
-                return new AttendanceResponse(false, "Attendance already marked for today", null);
-            }
+        return new AttendanceResponse(
+                true,
+                "Attendance marked successfully",
+                new Attendance(mark.getAttendanceId(), user.getId(), today, AttendanceStatus.PRESENT, now)
+        );
+    }
 
-            // Mark attendance
-            JpaAttendance attendance = new JpaAttendance(
-                    user,
-                    today
-            );
+    @Override
+    public Page<AttendanceReportRow> getDailyAttendance(String adminToken, LocalDate date, String cursor, int limit) {
+        AuthenticatedUser admin = authenticate(adminToken);
+        if (admin == null || admin.getRole() != UserRole.ADMIN) {
+            return new Page<>(List.of(), null);
+        }
 
-            em.persist(attendance);
+        int pageSize = pageSize(limit);
+        List<AttendanceReportRow> rows = attendanceRecords.findReportPage(date, KeysetCursor.decode(cursor), pageSize + 1);
+        return toPage(rows, pageSize, row -> new KeysetCursor(row.getCreatedAt(), row.getAttendanceId()), row -> row);
+    }
 
-            return new AttendanceResponse(
-                    true,
-                    "Attendance marked successfully",
-                    AttendanceMapper.jpaAttendanceToAttendance(attendance)
-            );
+    @Override
+    public ApiResponse updatePassword(String userToken, UpdatePasswordRequest request) {
+        return updatePassword(userToken, request, Runnable::run).toCompletableFuture().join();
+    }
+
+    public CompletionStage<ApiResponse> updatePassword(String userToken, UpdatePasswordRequest request,
+                                                       Executor databaseExecutor) {
+        return CompletableFuture.supplyAsync(() -> {
+            AuthenticatedUser authenticated = authenticate(userToken);
+            if (authenticated == null) {
+                return null;
+            }
+            JpaUser user = jpaApi.withTransaction(PERSISTENCE_UNIT, true,
+                    em -> em.find(JpaUser.class, authenticated.getId()));
+            return user == null ? null : new VerifiedLogin(user, user.getPassword(), null);
+        }, databaseExecutor).thenCompose(current -> {
+            if (current == null) {
+                return CompletableFuture.completedFuture(new ApiResponse(false, "Invalid token"));
+            }
+            // Hashed outside the transaction, so a connection isn't held for it
+            return CompletableFuture.supplyAsync(() -> passwordHasher.verify(request.getOldPassword(), current.stored)
+                    ? passwordHasher.hash(request.getNewPassword())
+                    : null, hashingContext).thenApplyAsync(newHash -> {
+                if (newHash == null) {
+                    return new ApiResponse(false, "Old password is incorrect");
+                }
+                // Only if the password hasn't been changed since it was verified
+                int updated = jpaApi.withTransaction(em -> em.createQuery(
+                                "UPDATE JpaUser u SET u.password = :password WHERE u.id = :id AND u.password = :stored")
+                        .setParameter("password", newHash)
+                        .setParameter("id", current.user.getId())
+                        .setParameter("stored", current.stored)
+                        .executeUpdate());
+                tokenCache.invalidateUser(current.user.getId());
+                loginCache.invalidateUser(current.user.getId());
+                return updated > 0
+                        ? new ApiResponse(true, "Password updated successfully")
+                        : new ApiResponse(false, "Password was changed meanwhile, try again");
+            }, databaseExecutor);
         });
     }
 
     @Override
-    public List<Attendance> getDailyAttendance(String adminToken, LocalDate date) {
-        return jpaApi.withTransaction(em -> {
-            JpaUser admin = findUserByToken(em, adminToken);
-            if (admin == null || admin.getRole() != UserRole.ADMIN) {
-                return List.of();
-            }
+    public List<DepartmentAttendanceSummary> getDepartmentAttendance(String adminToken, LocalDate from, LocalDate to) {
+        AuthenticatedUser admin = authenticate(adminToken);
+        if (admin == null || admin.getRole() != UserRole.ADMIN) {
+            return List.of();
+        }
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
 
-            List<JpaAttendance> attendances = em.createQuery(
-                            "SELECT a FROM JpaAttendance a WHERE a.date = :date", JpaAttendance.class)
-                    .setParameter("date", date)
-                    .getResultList();
+        int workdays = WorkCalendar.workdaysBetween(from, min(to, LocalDate.now()));
+        Map<String, Long> present = attendanceRollups.sumPresentByDepartment(from, to);
+        Map<String, Long> headcounts = attendanceRollups.countEmployeesByDepartment();
+
+        Set<String> departments = new TreeSet<>(present.keySet());
+        departments.addAll(headcounts.keySet());
+        List<DepartmentAttendanceSummary> summaries = new ArrayList<>(departments.size());
+        for (String department : departments) {
+            long daysPresent = present.getOrDefault(department, 0L);
+            long headcount = headcounts.getOrDefault(department, 0L);
+            summaries.add(new DepartmentAttendanceSummary(
+                    department.isEmpty() ? null : department, from, to,
+                    daysPresent, headcount, workdays, rate(daysPresent, headcount * workdays)));
+        }
+        return summaries;
+    }
 
-            return attendances.stream()
-                    .map(AttendanceMapper::jpaAttendanceToAttendance)
-                    .collect(Collectors.toList());
-        });
+    @Override
+    public List<EmployeeAttendanceSummary> getEmployeeAttendance(String adminToken, String employeeId,
+                                                                 YearMonth from, YearMonth to) {
+        AuthenticatedUser admin = authenticate(adminToken);
+        if (admin == null || admin.getRole() != UserRole.ADMIN) {
+            return List.of();
+        }
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+
+        LocalDate today = LocalDate.now();
+        Map<YearMonth, Integer> present = attendanceRollups.findPresentDaysByMonth(employeeId, from, to);
+        List<EmployeeAttendanceSummary> summaries = new ArrayList<>();
+        for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            int daysPresent = present.getOrDefault(month, 0);
+            int workdays = WorkCalendar.workdaysBetween(month.atDay(1), min(month.atEndOfMonth(), today));
+            summaries.add(new EmployeeAttendanceSummary(employeeId, month, daysPresent, workdays, rate(daysPresent, workdays)));
+        }
+        return summaries;
     }
 
     @Override
-    public ApiResponse updatePassword(String userToken, UpdatePasswordRequest request) {
-        return jpaApi.withTransaction(em -> {
-            JpaUser user = findUserByToken(em, userToken);
-            if (user == null) {
-                return new ApiResponse(false, "Invalid token");
-            }
+    public MonthlyPresence getMonthlyPresence(String userToken, String employeeId, YearMonth month) {
+        AuthenticatedUser user = authenticate(userToken);
+        if (user == null || (user.getRole() != UserRole.ADMIN && !user.getId().equals(employeeId))) {
+            return null;
+        }
 
-            if (!user.getPassword().equals(request.getOldPassword())) {
-                return new ApiResponse(false, "Old password is incorrect");
-            }
+        List<LocalDate> presentDates = attendanceIndex.presentDates(employeeId, month);
+        int workdays = WorkCalendar.workdaysBetween(month.atDay(1), min(month.atEndOfMonth(), LocalDate.now()));
+        return new MonthlyPresence(employeeId, month, presentDates, presentDates.size(), workdays);
+    }
+
+    @Override
+    public List<String> getAbsentees(String adminToken, LocalDate date) {
+        AuthenticatedUser admin = authenticate(adminToken);
+        if (admin == null || admin.getRole() != UserRole.ADMIN) {
+            return List.of();
+        }
+        return attendanceIndex.absentees(date);
+    }
 
-            user.setPassword(request.getNewPassword());
-            em.merge(user);
+    @Override
+    public BulkImportResponse importEmployees(String adminToken, InputStream input, ImportFormat format) {
+        return importEmployees(adminToken, input, format, Runnable::run).toCompletableFuture().join();
+    }
 
-            return new ApiResponse(true, "Password updated successfully");
+    public CompletionStage<BulkImportResponse> importEmployees(String adminToken, InputStream input,
+                                                               ImportFormat format, Executor databaseExecutor) {
+        return CompletableFuture.supplyAsync(() -> authenticate(adminToken), databaseExecutor).thenCompose(admin -> {
+            if (admin == null || admin.getRole() != UserRole.ADMIN) {
+                return CompletableFuture.completedFuture(
+                        new BulkImportResponse(false, "Unauthorized. Admin access required", 0, 0, List.of()));
+            }
+            return employeeImporter.importEmployees(input, format, databaseExecutor);
         });
     }
 
-    private JpaUser findUserByToken(javax.persistence.EntityManager em, String token) {
+    private static LocalDate min(LocalDate a, LocalDate b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private static double rate(long daysPresent, long expectedDays) {
+        return expectedDays == 0 ? 0 : (double) daysPresent / expectedDays;
+    }
+
+    private static int pageSize(int limit) {
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    /**
+     * Maps the first {@code pageSize} of {@code rows}, which were fetched one row past the page
+     * to tell whether another page follows.
+     */
+    private static <E, T> Page<T> toPage(List<E> rows, int pageSize,
+                                         Function<E, KeysetCursor> keyOf, Function<E, T> mapper) {
+        boolean hasMore = rows.size() > pageSize;
+        List<E> page = hasMore ? rows.subList(0, pageSize) : rows;
+        String nextCursor = hasMore ? keyOf.apply(page.get(pageSize - 1)).encode() : null;
+        return new Page<>(page.stream().map(mapper).collect(Collectors.toList()), nextCursor);
+    }
+
+    /**
+     * The user a token belongs to, from the {@link TokenCache} when possible. Only the id,
+     * role and department are read, through the unique index on {@code users.token}.
+     */
+    private AuthenticatedUser authenticate(String token) {
         if (token == null || token.isEmpty()) {
             return null;
         }
 
-        return em.createQuery("SELECT u FROM JpaUser u WHERE u.token = :token", JpaUser.class)
-                .setParameter("token", token)
-                .getResultList().stream()
-                .findFirst()
-                .orElse(null);
+        return tokenCache.get(token).orElseGet(() -> {
+            long stamp = tokenCache.stamp();
+            AuthenticatedUser user = jpaApi.withTransaction(em -> em.createQuery(
+                            "SELECT NEW com.encentral.event_management.impl.AuthenticatedUser(u.id, u.role, u.department) "
+                                    + "FROM JpaUser u WHERE u.token = :token", AuthenticatedUser.class)
+                    .setParameter("token", token)
+                    .getResultList().stream()
+                    .findFirst()
+                    .orElse(null));
+            if (user != null) {
+                tokenCache.put(token, user, stamp);
+            }
+            return user;
+        });
+    }
+
+    /**
+     * A user whose password was verified, with its stored hash and, if that should be
+     * upgraded, the new one.
+     */
+    private static class VerifiedLogin {
+        private final JpaUser user;
+        private final String stored;
+        private final String rehashed;
+
+        VerifiedLogin(JpaUser user, String stored, String rehashed) {
+            this.user = user;
+            this.stored = stored;
+            this.rehashed = rehashed;
+        }
     }
-}
\ No newline at end of file
+}
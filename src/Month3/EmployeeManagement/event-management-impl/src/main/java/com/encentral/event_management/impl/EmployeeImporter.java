@@ -0,0 +1,430 @@
+package com.encentral.event_management.impl;
+
+import com.encentral.event_management.model.BulkImportResponse;
+import com.encentral.event_management.model.BulkImportRow;
+import com.encentral.event_management.model.EmployeeRequest;
+import com.encentral.event_management.model.ImportFormat;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import play.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Imports employees from a CSV or NDJSON upload, read a line at a time. Rows are handled in
+ * chunks of {@code employee.bulk-import.chunk-size}: one query finds the emails already
+ * registered, and the rest are inserted as one JDBC batch. Each chunk commits on its own, so
+ * a bad row or a failed chunk doesn't undo the rest of the file; every line gets a result.
+ * <p>
+ * PINs are hashed on the {@link PasswordHashingExecutionContext}, at most half the cores'
+ * worth at a time so sign-ins keep the rest; only the queries take a database thread. The
+ * import runs within one request, so files are capped at {@code employee.bulk-import.max-rows}
+ * rows; lines past that are not imported.
+ */
+@Singleton
+public class EmployeeImporter {
+
+    private static final Logger.ALogger logger = Logger.of(EmployeeImporter.class);
+    private static final int HASH_PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    private final UserRecordRepository userRecords;
+    private final PasswordHasher passwordHasher;
+    private final PasswordHashingExecutionContext hashingContext;
+    private final AttendanceBitmapIndex attendanceIndex;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+    private final int maxRows;
+
+    @Inject
+    public EmployeeImporter(Config config, UserRecordRepository userRecords, PasswordHasher passwordHasher,
+                            PasswordHashingExecutionContext hashingContext, AttendanceBitmapIndex attendanceIndex,
+                            ObjectMapper objectMapper) {
+        this.userRecords = userRecords;
+        this.passwordHasher = passwordHasher;
+        this.hashingContext = hashingContext;
+        this.attendanceIndex = attendanceIndex;
+        this.objectMapper = objectMapper;
+        this.chunkSize = config.getInt("employee.bulk-import.chunk-size");
+        this.maxRows = config.getInt("employee.bulk-import.max-rows");
+    }
+
+    public BulkImportResponse importEmployees(InputStream input, ImportFormat format) {
+        return importEmployees(input, format, Runnable::run).toCompletableFuture().join();
+    }
+
+    /**
+     * Reads, parses and hashes on the {@link PasswordHashingExecutionContext}, and runs only
+     * each chunk's queries on {@code databaseExecutor}, so no database thread waits on a hash
+     * or on the next chunk being read.
+     */
+    public CompletionStage<BulkImportResponse> importEmployees(InputStream input, ImportFormat format,
+                                                               Executor databaseExecutor) {
+        ImportRun run = new ImportRun(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)));
+        CompletionStage<BulkImportResponse> response = CompletableFuture
+                .supplyAsync(() -> run.start(format), hashingContext)
+                .thenCompose(failure -> failure != null
+                        ? CompletableFuture.completedFuture(failure)
+                        : importRemaining(run, databaseExecutor));
+        return response.whenComplete((result, error) -> run.close());
+    }
+
+    private CompletionStage<BulkImportResponse> importRemaining(ImportRun run, Executor databaseExecutor) {
+        return CompletableFuture.supplyAsync(run::readChunk, hashingContext)
+                .thenCompose(chunk -> importChunk(chunk, databaseExecutor))
+                .thenCompose(rows -> {
+                    run.results.addAll(rows);
+                    if (run.stopMessage != null) {
+                        return CompletableFuture.completedFuture(response(false, run.stopMessage, run.results));
+                    }
+                    return run.finished
+                            ? CompletableFuture.completedFuture(response(true, "Import finished", run.results))
+                            : importRemaining(run, databaseExecutor);
+                });
+    }
+
+    private CompletionStage<List<BulkImportRow>> importChunk(List<ParsedRow> chunk, Executor databaseExecutor) {
+        if (chunk.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        List<BulkImportRow> results = new ArrayList<>(chunk.size());
+
+        return CompletableFuture.supplyAsync(() -> userRecords.findExistingEmails(
+                        chunk.stream().map(row -> row.request.getEmail()).collect(Collectors.toList())), databaseExecutor)
+                .thenCompose(existing -> {
+                    List<ParsedRow> fresh = new ArrayList<>(chunk.size());
+                    for (ParsedRow row : chunk) {
+                        if (existing.contains(row.request.getEmail())) {
+                            results.add(new BulkImportRow(row.line, row.request.getEmail(), null, null,
+                                    "Email already exists"));
+                        } else {
+                            fresh.add(row);
+                        }
+                    }
+                    return hashPins(fresh);
+                })
+                .thenApplyAsync(candidates -> {
+                    insertCandidates(candidates, results);
+                    return results;
+                }, databaseExecutor);
+    }
+
+    /**
+     * PIN hashes are slow on purpose, so they are spread over the cores, but only
+     * {@code HASH_PARALLELISM} at a time.
+     */
+    private CompletionStage<List<Candidate>> hashPins(List<ParsedRow> rows) {
+        CompletionStage<List<Candidate>> candidates = CompletableFuture.completedFuture(new ArrayList<>(rows.size()));
+        for (int start = 0; start < rows.size(); start += HASH_PARALLELISM) {
+            List<ParsedRow> batch = rows.subList(start, Math.min(start + HASH_PARALLELISM, rows.size()));
+            candidates = candidates.thenCompose(hashed -> {
+                List<CompletableFuture<Candidate>> hashing = batch.stream()
+                        .map(row -> CompletableFuture.supplyAsync(() -> candidate(row), hashingContext))
+                        .collect(Collectors.toList());
+                return CompletableFuture.allOf(hashing.toArray(new CompletableFuture[0])).thenApply(done -> {
+                    hashing.forEach(candidate -> hashed.add(candidate.join()));
+                    return hashed;
+                });
+            });
+        }
+        return candidates;
+    }
+
+    private void insertCandidates(List<Candidate> candidates, List<BulkImportRow> results) {
+        if (candidates.isEmpty()) {
+            return;
+        }
+        Set<String> inserted;
+        try {
+            inserted = userRecords.insertAllIfAbsent(
+                    candidates.stream().map(candidate -> candidate.employee).collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            logger.error("Failed to insert {} imported employees", candidates.size(), e);
+            for (Candidate candidate : candidates) {
+                results.add(new BulkImportRow(candidate.row.line, candidate.employee.getEmail(), null, null,
+                        "Failed to insert: " + e.getMessage()));
+            }
+            return;
+        }
+
+        for (Candidate candidate : candidates) {
+            ImportedEmployee employee = candidate.employee;
+            if (inserted.contains(employee.getId())) {
+                attendanceIndex.addEmployee(employee.getId());
+                results.add(new BulkImportRow(candidate.row.line, employee.getEmail(), employee.getId(), candidate.pin, null));
+            } else {
+                // Registered by someone else since the check
+                results.add(new BulkImportRow(candidate.row.line, employee.getEmail(), null, null, "Email already exists"));
+            }
+        }
+    }
+
+    private Candidate candidate(ParsedRow row) {
+        String pin = passwordHasher.newPin();
+        EmployeeRequest request = row.request;
+        ImportedEmployee employee = new ImportedEmployee(
+                UUID.randomUUID().toString(),
+                request.getEmail(),
+                passwordHasher.hash(pin),
+                request.getFirstName(),
+                request.getLastName(),
+                request.getDepartment(),
+                UUID.randomUUID().toString());
+        return new Candidate(row, pin, employee);
+    }
+
+    private static String validate(EmployeeRequest request, Set<String> seenEmails) {
+        String email = request.getEmail();
+        if (email == null || email.indexOf('@') <= 0) {
+            return "A valid email is required";
+        }
+        if (isBlank(request.getFirstName()) || isBlank(request.getLastName())) {
+            return "firstName and lastName are required";
+        }
+        if (!seenEmails.add(email)) {
+            return "Duplicate email in file";
+        }
+        return null;
+    }
+
+    private EmployeeRequest fromJson(String line) {
+        EmployeeRequest request;
+        try {
+            request = objectMapper.readValue(line, EmployeeRequest.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getMessage());
+        }
+        if (request == null) {
+            throw new IllegalArgumentException("Invalid JSON: expected an object");
+        }
+        return new EmployeeRequest(trim(request.getEmail()), trim(request.getFirstName()),
+                trim(request.getLastName()), trim(request.getDepartment()));
+    }
+
+    private static EmployeeRequest fromCsv(String line, Map<String, Integer> columns) {
+        List<String> fields = splitCsv(line);
+        return new EmployeeRequest(
+                field(fields, columns.get("email")),
+                field(fields, columns.get("firstname")),
+                field(fields, columns.get("lastname")),
+                field(fields, columns.get("department")));
+    }
+
+    /**
+     * Column positions by name, ignoring case, underscores and spaces, so both
+     * {@code firstName} and {@code first_name} work.
+     */
+    private static Map<String, Integer> csvColumns(String header) {
+        if (header.startsWith("\uFEFF")) {
+            header = header.substring(1);
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = splitCsv(header);
+        for (int i = 0; i < names.size(); i++) {
+            columns.putIfAbsent(names.get(i).toLowerCase().replace("_", "").replace(" ", ""), i);
+        }
+        if (!columns.containsKey("email") || !columns.containsKey("firstname") || !columns.containsKey("lastname")) {
+            throw new IllegalArgumentException("The CSV header must name email, firstName and lastName columns");
+        }
+        return columns;
+    }
+
+    /**
+     * Splits one CSV line, honouring double-quoted fields with {@code ""} escapes. Quoted
+     * fields can't span lines.
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String field(List<String> fields, Integer column) {
+        return column == null || column >= fields.size() ? null : trim(fields.get(column));
+    }
+
+    private static String trim(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    private static BulkImportResponse response(boolean success, String message, List<BulkImportRow> results) {
+        results.sort(Comparator.comparingInt(BulkImportRow::getLine));
+        int imported = (int) results.stream().filter(row -> row.getError() == null).count();
+        return new BulkImportResponse(success, message, imported, results.size() - imported, results);
+    }
+
+    /**
+     * Where one import has got to in its upload. Only one stage touches it at a time.
+     */
+    private class ImportRun {
+
+        private final BufferedReader reader;
+        private final List<BulkImportRow> results = new ArrayList<>();
+        private final Set<String> seenEmails = new HashSet<>();
+        private Function<String, EmployeeRequest> parser;
+        private int lineNumber;
+        private int rows;
+        private boolean finished;
+        // Why the import stopped before the end of the upload
+        private String stopMessage;
+
+        ImportRun(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * @return a response if the upload can't be imported at all
+         */
+        BulkImportResponse start(ImportFormat format) {
+            if (format != ImportFormat.CSV) {
+                parser = EmployeeImporter.this::fromJson;
+                return null;
+            }
+            String header;
+            try {
+                header = reader.readLine();
+            } catch (IOException e) {
+                logger.error("Failed to read employee import header", e);
+                return new BulkImportResponse(false, "Failed to read the upload", 0, 0, List.of());
+            }
+            lineNumber++;
+            if (header == null) {
+                return new BulkImportResponse(false, "The file is empty", 0, 0, List.of());
+            }
+            try {
+                Map<String, Integer> columns = csvColumns(header);
+                parser = line -> fromCsv(line, columns);
+                return null;
+            } catch (IllegalArgumentException e) {
+                return new BulkImportResponse(false, e.getMessage(), 0, 0, List.of());
+            }
+        }
+
+        /**
+         * Reads up to a chunk of valid rows, adding a result for each invalid one.
+         */
+        List<ParsedRow> readChunk() {
+            List<ParsedRow> chunk = new ArrayList<>(chunkSize);
+            try {
+                String line;
+                while (chunk.size() < chunkSize && (line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    if (++rows > maxRows) {
+                        stopMessage = "The file has more than " + maxRows
+                                + " rows, lines from " + lineNumber + " on were not imported";
+                        return chunk;
+                    }
+
+                    EmployeeRequest request;
+                    try {
+                        request = parser.apply(line);
+                    } catch (IllegalArgumentException e) {
+                        results.add(new BulkImportRow(lineNumber, null, null, null, e.getMessage()));
+                        continue;
+                    }
+                    String error = validate(request, seenEmails);
+                    if (error != null) {
+                        results.add(new BulkImportRow(lineNumber, request.getEmail(), null, null, error));
+                        continue;
+                    }
+                    chunk.add(new ParsedRow(lineNumber, request));
+                }
+                finished = chunk.size() < chunkSize;
+            } catch (IOException e) {
+                // Chunks before this are committed, so their PINs must still reach the caller
+                logger.error("Failed to read employee import after line {}", lineNumber, e);
+                stopMessage = "Failed to read the upload after line " + lineNumber;
+            }
+            return chunk;
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close employee import", e);
+            }
+        }
+    }
+
+    private static class ParsedRow {
+
+        private final int line;
+        private final EmployeeRequest request;
+
+        ParsedRow(int line, EmployeeRequest request) {
+            this.line = line;
+            this.request = request;
+        }
+    }
+
+    private static class Candidate {
+
+        private final ParsedRow row;
+        private final String pin;
+        private final ImportedEmployee employee;
+
+        Candidate(ParsedRow row, String pin, ImportedEmployee employee) {
+            this.row = row;
+            this.pin = pin;
+            this.employee = employee;
+        }
+    }
+}
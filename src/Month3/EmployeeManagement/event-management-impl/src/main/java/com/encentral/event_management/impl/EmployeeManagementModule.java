@@ -1,11 +1,15 @@
 package com.encentral.event_management.impl;
 
 import com.encentral.event_management.api.IEmployeeManagement;
+import com.encentral.event_management.api.IEmployeeManagementAsync;
 import com.google.inject.AbstractModule;
 
 public class EmployeeManagementModule extends AbstractModule {
     @Override
     protected void configure() {
         bind(IEmployeeManagement.class).to(DefaultEmployeeManagementImpl.class);
+        bind(IEmployeeManagementAsync.class).to(DefaultEmployeeManagementAsyncImpl.class);
+        // Eager, so a journal left by a crash is replayed at startup rather than on first use
+        bind(AttendanceJournal.class).asEagerSingleton();
     }
 }
\ No newline at end of file
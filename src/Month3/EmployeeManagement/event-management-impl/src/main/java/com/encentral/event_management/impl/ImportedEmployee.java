@@ -0,0 +1,19 @@
+package com.encentral.event_management.impl;
+
+import lombok.*;
+
+/**
+ * A users row about to be inserted by a bulk import; {@code passwordHash} is the hashed PIN.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportedEmployee {
+    private String id;
+    private String email;
+    private String passwordHash;
+    private String firstName;
+    private String lastName;
+    private String department;
+    private String token;
+}
@@ -0,0 +1,55 @@
+package com.encentral.event_management.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position after the last row of a page, as {@code (createdAt, id)}. Rows are listed in that
+ * order, so the next page is whatever sorts after it, found through the index rather than by
+ * skipping an offset. Handed to clients as an opaque base64url string.
+ */
+public class KeysetCursor {
+
+    private final LocalDateTime createdAt;
+    private final String id;
+
+    public KeysetCursor(LocalDateTime createdAt, String id) {
+        this.createdAt = createdAt;
+        this.id = id;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String encode() {
+        String key = createdAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return {@code null} for a missing cursor, meaning the first page
+     * @throws IllegalArgumentException if the cursor isn't one {@link #encode()} produced
+     */
+    public static KeysetCursor decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = key.indexOf('|');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            return new KeysetCursor(LocalDateTime.parse(key.substring(0, separator)), key.substring(separator + 1));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+}
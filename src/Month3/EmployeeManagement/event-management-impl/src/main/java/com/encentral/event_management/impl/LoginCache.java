@@ -0,0 +1,134 @@
+package com.encentral.event_management.impl;
+
+import com.encentral.event_management.model.LoginResponse;
+import com.typesafe.config.Config;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Size- and TTL-bounded LRU of recent successful sign-ins, so a client signing in again
+ * shortly after skips both the database and the password hash. Keyed by an HMAC of the email
+ * and password under a key generated at startup: nothing here can be used to recover a
+ * password, not even a 4-digit PIN, without that key.
+ * <p>
+ * Entries are dropped when the user's password changes or the user is removed. A sign-in
+ * that read the user before such a change isn't cached, see {@link #stamp()}.
+ */
+@Singleton
+public class LoginCache {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final SecretKey key;
+    private final Map<String, CachedLogin> entries;
+    // Guarded by entries
+    private long invalidations;
+
+    @Inject
+    public LoginCache(Config config) {
+        this(config.getInt("employee.auth.login-cache.max-entries"),
+                config.getDuration("employee.auth.login-cache.ttl").toNanos());
+    }
+
+    public LoginCache(int maxEntries, long ttlNanos) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlNanos;
+        try {
+            this.key = KeyGenerator.getInstance("HmacSHA256").generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to create login cache key", e);
+        }
+        this.entries = new LinkedHashMap<String, CachedLogin>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedLogin> eldest) {
+                return size() > LoginCache.this.maxEntries;
+            }
+        };
+    }
+
+    public Optional<LoginResponse> get(String email, String password) {
+        if (maxEntries <= 0) {
+            return Optional.empty();
+        }
+        String cacheKey = cacheKey(email, password);
+        synchronized (entries) {
+            CachedLogin entry = entries.get(cacheKey);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            if (entry.expiresAt - System.nanoTime() <= 0) {
+                entries.remove(cacheKey);
+                return Optional.empty();
+            }
+            return Optional.of(entry.response);
+        }
+    }
+
+    /**
+     * To be taken before reading the user, and passed to {@link #put}.
+     */
+    public long stamp() {
+        synchronized (entries) {
+            return invalidations;
+        }
+    }
+
+    /**
+     * Caches a sign-in, unless some user was invalidated since {@code stamp} was taken, in
+     * which case the sign-in may have been checked against a password that no longer holds.
+     */
+    public void put(String email, String password, String userId, LoginResponse response, long stamp) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        CachedLogin entry = new CachedLogin(userId, response, System.nanoTime() + ttlNanos);
+        String cacheKey = cacheKey(email, password);
+        synchronized (entries) {
+            if (invalidations == stamp) {
+                entries.put(cacheKey, entry);
+            }
+        }
+    }
+
+    public void invalidateUser(String userId) {
+        synchronized (entries) {
+            invalidations++;
+            entries.values().removeIf(entry -> entry.userId.equals(userId));
+        }
+    }
+
+    private String cacheKey(String email, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            mac.update(email.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to compute login cache key", e);
+        }
+    }
+
+    private static class CachedLogin {
+
+        private final String userId;
+        private final LoginResponse response;
+        private final long expiresAt;
+
+        CachedLogin(String userId, LoginResponse response, long expiresAt) {
+            this.userId = userId;
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
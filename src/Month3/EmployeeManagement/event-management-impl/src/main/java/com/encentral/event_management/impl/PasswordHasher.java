@@ -0,0 +1,163 @@
+package com.encentral.event_management.impl;
+
+import com.typesafe.config.Config;
+import play.Logger;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Salted PBKDF2 password and PIN hashes, stored as
+ * {@code pbkdf2-sha256$<iterations>$<salt>$<hash>}.
+ * <p>
+ * The iteration count is measured at startup so one verification takes about
+ * {@code employee.auth.password-hash.target-latency} on this hardware, but never fewer than
+ * {@code min-iterations}. Each hash records its own count, so hashes made under another count
+ * still verify. Only plaintext and hashes below {@code min-iterations} are upgraded on sign-in:
+ * the measured count differs between hosts and restarts, and chasing it would rewrite stored
+ * hashes back and forth. Values without the prefix are plaintext from before hashing and are
+ * compared as such until rehashed.
+ * <p>
+ * Hashing is CPU bound; callers run it on the {@link PasswordHashingExecutionContext}.
+ */
+@Singleton
+public class PasswordHasher {
+
+    private static final Logger.ALogger logger = Logger.of(PasswordHasher.class);
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int CALIBRATION_ITERATIONS = 10_000;
+    private static final long CALIBRATION_WARMUP_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int CALIBRATION_RUNS = 7;
+    private static final int MAX_ITERATIONS = 10_000_000;
+
+    // Shared: seeding a SecureRandom is the expensive part, and it is thread safe
+    private final SecureRandom random = new SecureRandom();
+    private final int iterations;
+    private final int minIterations;
+    private final String dummyHash;
+
+    @Inject
+    public PasswordHasher(Config config) {
+        this(config.getDuration("employee.auth.password-hash.target-latency").toNanos(),
+                config.getInt("employee.auth.password-hash.min-iterations"));
+    }
+
+    public PasswordHasher(long targetLatencyNanos, int minIterations) {
+        this.iterations = Math.max(minIterations, calibrate(targetLatencyNanos));
+        this.minIterations = minIterations;
+        this.dummyHash = hash("");
+        logger.info("Hashing passwords with {} PBKDF2 iterations", iterations);
+    }
+
+    public String hash(String secret) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = derive(secret, salt, iterations);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    /**
+     * Checks {@code secret} against a stored value in time that doesn't depend on how much of
+     * it matches.
+     */
+    public boolean verify(String secret, String stored) {
+        if (secret == null || stored == null) {
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            int storedIterations = Integer.parseInt(parts[0]);
+            byte[] salt = Base64.getDecoder().decode(parts[1]);
+            byte[] expected = Base64.getDecoder().decode(parts[2]);
+            return MessageDigest.isEqual(derive(secret, salt, storedIterations), expected);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Does the same work as verifying against a real hash, for when there is no user to verify
+     * against, so the response time doesn't tell whether an email is registered.
+     */
+    public void verifyAgainstDummy(String secret) {
+        verify(secret == null ? "" : secret, dummyHash);
+    }
+
+    /**
+     * Whether {@code stored} is plaintext or has fewer than {@code min-iterations}.
+     */
+    public boolean needsRehash(String stored) {
+        if (stored == null || !stored.startsWith(PREFIX)) {
+            return true;
+        }
+        int end = stored.indexOf('$', PREFIX.length());
+        try {
+            return end < 0 || Integer.parseInt(stored.substring(PREFIX.length(), end)) < minIterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * A random 4-digit PIN for a new employee.
+     */
+    public String newPin() {
+        return String.format("%04d", random.nextInt(10000));
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Iterations that take about {@code targetLatencyNanos}, from the median of a few timed
+     * runs after a warm-up, so neither JIT compilation nor a stall during startup skews it.
+     */
+    private static int calibrate(long targetLatencyNanos) {
+        byte[] salt = new byte[SALT_BYTES];
+        long warmupEnd = System.nanoTime() + CALIBRATION_WARMUP_NANOS;
+        while (System.nanoTime() - warmupEnd < 0) {
+            derive("calibration", salt, CALIBRATION_ITERATIONS);
+        }
+        long[] elapsed = new long[CALIBRATION_RUNS];
+        for (int run = 0; run < CALIBRATION_RUNS; run++) {
+            long start = System.nanoTime();
+            derive("calibration", salt, CALIBRATION_ITERATIONS);
+            elapsed[run] = System.nanoTime() - start;
+        }
+        Arrays.sort(elapsed);
+        double iterationsPerNano = (double) CALIBRATION_ITERATIONS / Math.max(1, elapsed[CALIBRATION_RUNS / 2]);
+        return (int) Math.min(MAX_ITERATIONS, targetLatencyNanos * iterationsPerNano);
+    }
+
+    private static byte[] derive(String secret, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(secret.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to hash password", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
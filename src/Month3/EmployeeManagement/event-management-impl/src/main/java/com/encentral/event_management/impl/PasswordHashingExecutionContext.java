@@ -0,0 +1,21 @@
+package com.encentral.event_management.impl;
+
+import akka.actor.ActorSystem;
+import play.libs.concurrent.CustomExecutionContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Runs PBKDF2 hashing and verification. Backed by the {@code password-hashing.dispatcher}
+ * thread pool, one thread per core, so hashes don't take the {@link DatabaseExecutionContext}
+ * threads that are needed for queries.
+ */
+@Singleton
+public class PasswordHashingExecutionContext extends CustomExecutionContext {
+
+    @Inject
+    public PasswordHashingExecutionContext(ActorSystem actorSystem) {
+        super(actorSystem, "password-hashing.dispatcher");
+    }
+}
@@ -13,7 +13,7 @@ import java.util.UUID;
 public class StartupInitializer {
 
     @Inject
-    public StartupInitializer(JPAApi jpaApi) {
+    public StartupInitializer(JPAApi jpaApi, PasswordHasher passwordHasher) {
         jpaApi.withTransaction(() -> {
             EntityManager em = jpaApi.em();
 
@@ -25,7 +25,7 @@ public class StartupInitializer {
             if (count == 0) {
                 JpaUser admin = new JpaUser(
                         "admin@encentral.com",
-                        "admin",
+                        passwordHasher.hash("admin"),
                         "Admin",
                         "User",
                         UserRole.ADMIN,
@@ -0,0 +1,102 @@
+package com.encentral.event_management.impl;
+
+import com.typesafe.config.Config;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Size- and TTL-bounded LRU of the users behind API tokens, so a request is authenticated
+ * without a database round trip. Entries are dropped explicitly when a user's password
+ * changes or the user is removed; the TTL bounds how long any other change goes unseen. A
+ * lookup that read the user before such a change isn't cached, see {@link #stamp()}.
+ */
+@Singleton
+public class TokenCache {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<String, CachedUser> entries;
+    // Guarded by entries
+    private long invalidations;
+
+    @Inject
+    public TokenCache(Config config) {
+        this(config.getInt("employee.auth.token-cache.max-entries"),
+                config.getDuration("employee.auth.token-cache.ttl").toNanos());
+    }
+
+    public TokenCache(int maxEntries, long ttlNanos) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlNanos;
+        this.entries = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+                return size() > TokenCache.this.maxEntries;
+            }
+        };
+    }
+
+    public Optional<AuthenticatedUser> get(String token) {
+        synchronized (entries) {
+            CachedUser entry = entries.get(token);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            if (entry.expiresAt - System.nanoTime() <= 0) {
+                entries.remove(token);
+                return Optional.empty();
+            }
+            return Optional.of(entry.user);
+        }
+    }
+
+    /**
+     * To be taken before reading the user, and passed to {@link #put}.
+     */
+    public long stamp() {
+        synchronized (entries) {
+            return invalidations;
+        }
+    }
+
+    /**
+     * Caches a token's user, unless some user was invalidated since {@code stamp} was taken,
+     * in which case the user may have been read before being changed or removed.
+     */
+    public void put(String token, AuthenticatedUser user, long stamp) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        CachedUser entry = new CachedUser(user, System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            if (invalidations == stamp) {
+                entries.put(token, entry);
+            }
+        }
+    }
+
+    /**
+     * Drops every token of a user; called rarely enough that a scan is cheaper than an index.
+     */
+    public void invalidateUser(String userId) {
+        synchronized (entries) {
+            invalidations++;
+            entries.values().removeIf(entry -> entry.user.getId().equals(userId));
+        }
+    }
+
+    private static class CachedUser {
+
+        private final AuthenticatedUser user;
+        private final long expiresAt;
+
+        CachedUser(AuthenticatedUser user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.encentral.event_management.impl;
+
+import com.encentral.entities.UserRole;
+import com.encentral.scaffold.commons.PostgresSqlQueryFactory;
+import com.querydsl.core.QueryFlag;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.sql.dml.SQLInsertClause;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.encentral.entities.sql.SUsers.users;
+
+/**
+ * Set-at-a-time statements on users for bulk imports, where going through the entity one
+ * row at a time would cost a round trip per employee.
+ */
+@Singleton
+public class UserRecordRepository {
+
+    private final PostgresSqlQueryFactory sqlQueryFactory;
+
+    @Inject
+    public UserRecordRepository(PostgresSqlQueryFactory sqlQueryFactory) {
+        this.sqlQueryFactory = sqlQueryFactory;
+    }
+
+    /**
+     * Which of {@code emails} are already registered, in one query.
+     */
+    public Set<String> findExistingEmails(Collection<String> emails) {
+        if (emails.isEmpty()) {
+            return Set.of();
+        }
+        return new HashSet<>(sqlQueryFactory.withTransaction(factory -> factory
+                .select(users.email)
+                .from(users)
+                .where(users.email.in(emails))
+                .fetch()));
+    }
+
+    /**
+     * Inserts all employees as one JDBC batch in one transaction. A row that collides with an
+     * existing one, e.g. an email registered since it was checked, is skipped.
+     *
+     * @return ids of the rows inserted
+     */
+    public Set<String> insertAllIfAbsent(List<ImportedEmployee> employees) {
+        if (employees.isEmpty()) {
+            return Set.of();
+        }
+        List<String> ids = employees.stream().map(ImportedEmployee::getId).collect(Collectors.toList());
+        return sqlQueryFactory.withTransaction(factory -> {
+            SQLInsertClause insert = factory.insert(users)
+                    .addFlag(QueryFlag.Position.END, " on conflict do nothing");
+            for (ImportedEmployee employee : employees) {
+                insert.set(users.id, employee.getId())
+                        .set(users.email, employee.getEmail())
+                        .set(users.password, employee.getPasswordHash())
+                        .set(users.firstName, employee.getFirstName())
+                        .set(users.lastName, employee.getLastName())
+                        .set(users.role, Expressions.stringTemplate("cast({0} as user_role)", UserRole.EMPLOYEE.name()))
+                        .set(users.department, employee.getDepartment())
+                        .set(users.token, employee.getToken())
+                        .addBatch();
+            }
+            insert.execute();
+
+            // Batched statements don't say which rows they inserted; this transaction sees its own
+            return new HashSet<>(factory
+                    .select(users.id)
+                    .from(users)
+                    .where(users.id.in(ids))
+                    .fetch());
+        });
+    }
+}
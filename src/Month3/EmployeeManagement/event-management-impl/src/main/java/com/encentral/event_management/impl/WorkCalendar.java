@@ -0,0 +1,39 @@
+package com.encentral.event_management.impl;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+
+/**
+ * Which days attendance is expected on: Monday to Friday.
+ */
+public final class WorkCalendar {
+
+    private WorkCalendar() {
+    }
+
+    public static boolean isWorkday(LocalDate date) {
+        DayOfWeek dayOfWeek = date.getDayOfWeek();
+        return dayOfWeek != DayOfWeek.SATURDAY && dayOfWeek != DayOfWeek.SUNDAY;
+    }
+
+    /**
+     * Workdays from {@code from} to {@code to}, both inclusive; 0 if {@code to} is before {@code from}.
+     */
+    public static int workdaysBetween(LocalDate from, LocalDate to) {
+        int workdays = 0;
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            if (isWorkday(date)) {
+                workdays++;
+            }
+        }
+        return workdays;
+    }
+
+    /**
+     * Position of a workday among its month's workdays, from 0. A month has at most 23, so
+     * one bit per workday fits a month in an int.
+     */
+    public static int workdayOfMonth(LocalDate date) {
+        return workdaysBetween(date.withDayOfMonth(1), date) - 1;
+    }
+}
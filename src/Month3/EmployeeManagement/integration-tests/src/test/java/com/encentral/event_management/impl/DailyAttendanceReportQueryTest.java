@@ -0,0 +1,157 @@
+package com.encentral.event_management.impl;
+
+import com.encentral.event_management.model.AttendanceReportRow;
+import com.encentral.scaffold.commons.PostgresSqlQueryFactory;
+import com.encentral.scaffold.commons.SqlQueryFactoryCallable;
+import com.querydsl.sql.SQLQueryFactory;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The daily report must cost one statement per page however many rows the page holds, with
+ * each employee's name and department coming from the same join rather than a lookup per row.
+ */
+public class DailyAttendanceReportQueryTest {
+
+    private static final Path MIGRATIONS = Paths.get("../entities/src/main/resources/db/migration/default");
+    private static final LocalDate DATE = LocalDate.of(2026, 10, 17);
+    private static final int EMPLOYEES = 50;
+
+    @ClassRule
+    public static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:12");
+
+    private final AtomicInteger statements = new AtomicInteger();
+    private AttendanceRecordRepository repository;
+
+    @BeforeClass
+    public static void migrate() throws IOException, SQLException {
+        List<Path> scripts;
+        try (Stream<Path> files = Files.list(MIGRATIONS)) {
+            scripts = files.filter(file -> file.toString().endsWith(".sql")).sorted().collect(Collectors.toList());
+        }
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            for (Path script : scripts) {
+                statement.execute(new String(Files.readAllBytes(script), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE users CASCADE");
+            try (PreparedStatement user = connection.prepareStatement("INSERT INTO users "
+                    + "(id, email, password, first_name, last_name, role, department, token) "
+                    + "VALUES (?, ?, 'x', ?, ?, 'EMPLOYEE', ?, ?)");
+                 PreparedStatement record = connection.prepareStatement("INSERT INTO attendance_records "
+                         + "(id, employee_id, date, status, check_in_time, created_at) "
+                         + "VALUES (?, ?, ?, 'PRESENT', ?, ?)")) {
+                for (int i = 0; i < EMPLOYEES; i++) {
+                    String employeeId = String.format("employee-%03d", i);
+                    LocalDateTime checkIn = DATE.atTime(9, 0).plusSeconds(i);
+                    user.setString(1, employeeId);
+                    user.setString(2, employeeId + "@example.com");
+                    user.setString(3, "First" + i);
+                    user.setString(4, "Last" + i);
+                    user.setString(5, i % 2 == 0 ? "Engineering" : "Sales");
+                    user.setString(6, UUID.randomUUID().toString());
+                    user.addBatch();
+                    record.setString(1, String.format("record-%03d", i));
+                    record.setString(2, employeeId);
+                    record.setObject(3, DATE);
+                    record.setObject(4, checkIn);
+                    record.setObject(5, checkIn);
+                    record.addBatch();
+                }
+                user.executeBatch();
+                record.executeBatch();
+            }
+        }
+
+        statements.set(0);
+        repository = new AttendanceRecordRepository(new CountingQueryFactory());
+    }
+
+    @Test
+    public void readsAFullPageInOneStatement() {
+        List<AttendanceReportRow> rows = repository.findReportPage(DATE, null, EMPLOYEES);
+
+        assertEquals(EMPLOYEES, rows.size());
+        assertEquals(1, statements.get());
+        for (AttendanceReportRow row : rows) {
+            assertNotNull(row.getFirstName());
+            assertNotNull(row.getLastName());
+            assertNotNull(row.getDepartment());
+        }
+    }
+
+    @Test
+    public void readsEachFollowingPageInOneStatement() {
+        List<AttendanceReportRow> first = repository.findReportPage(DATE, null, 20);
+        AttendanceReportRow last = first.get(first.size() - 1);
+        List<AttendanceReportRow> second = repository.findReportPage(
+                DATE, new KeysetCursor(last.getCreatedAt(), last.getAttendanceId()), 20);
+
+        assertEquals(20, second.size());
+        assertEquals("record-020", second.get(0).getAttendanceId());
+        assertEquals(2, statements.get());
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+    }
+
+    /**
+     * Runs every query on a fresh connection that counts the statements prepared on it.
+     */
+    private class CountingQueryFactory extends PostgresSqlQueryFactory {
+
+        @Override
+        public <A> A withTransaction(SqlQueryFactoryCallable<A> factoryCallable) {
+            try (Connection connection = connect()) {
+                Connection counting = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                            String name = method.getName();
+                            if (name.equals("prepareStatement") || name.equals("createStatement")
+                                    || name.equals("prepareCall")) {
+                                statements.incrementAndGet();
+                            }
+                            try {
+                                return method.invoke(connection, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        });
+                return factoryCallable.call(new SQLQueryFactory(CONFIGURATION, () -> counting));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
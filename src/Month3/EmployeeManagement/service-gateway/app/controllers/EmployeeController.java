@@ -1,129 +1,293 @@
 package controllers;
 
-import com.encentral.event_management.api.IEmployeeManagement;
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.japi.pf.PFBuilder;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.encentral.event_management.api.IEmployeeManagementAsync;
 import com.encentral.event_management.model.*;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import play.db.jpa.Transactional;
+import play.Logger;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Result;
 
 import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 
-@Transactional
+/**
+ * Every action hands its work to {@link IEmployeeManagementAsync}, so request threads never
+ * wait on the database.
+ */
 public class EmployeeController extends Controller {
 
-    private final IEmployeeManagement employeeManagement;
+    private static final Logger.ALogger logger = Logger.of(EmployeeController.class);
+    private static final int DEFAULT_PAGE_LIMIT = 100;
+    // Rows fetched per query while streaming, the largest page the service allows
+    private static final int STREAM_PAGE_LIMIT = 1000;
+
+    private final IEmployeeManagementAsync employeeManagement;
     private final ObjectMapper objectMapper;
 
     @Inject
-    public EmployeeController(IEmployeeManagement employeeManagement, ObjectMapper objectMapper) {
+    public EmployeeController(IEmployeeManagementAsync employeeManagement, ObjectMapper objectMapper) {
         this.employeeManagement = employeeManagement;
         this.objectMapper = objectMapper;
     }
 
-    public Result signIn(Http.Request request) {
+    public CompletionStage<Result> signIn(Http.Request request) {
+        LoginRequest loginRequest;
         try {
-            JsonNode json = request.body().asJson();
-            LoginRequest loginRequest = objectMapper.treeToValue(json, LoginRequest.class);
-            LoginResponse response = employeeManagement.signIn(loginRequest);
+            loginRequest = objectMapper.treeToValue(request.body().asJson(), LoginRequest.class);
+        } catch (Exception e) {
+            return invalidRequestNow(e);
+        }
 
-            if (response.getToken() == null) {
-                return unauthorized(objectMapper.writeValueAsString(response));
-            }
+        return employeeManagement.signIn(loginRequest)
+                .thenApply(response -> response.getToken() == null
+                        ? unauthorized(toJson(response))
+                        : ok(toJson(response)))
+                .exceptionally(EmployeeController::invalidRequest);
+    }
 
-            return ok(objectMapper.writeValueAsString(response));
+    public CompletionStage<Result> addEmployee(Http.Request request) {
+        String token = request.header("Authorization").orElse(null);
+        EmployeeRequest employeeRequest;
+        try {
+            employeeRequest = objectMapper.treeToValue(request.body().asJson(), EmployeeRequest.class);
         } catch (Exception e) {
-            return badRequest("Invalid request: " + e.getMessage());
+            return invalidRequestNow(e);
         }
+
+        return employeeManagement.addEmployee(token, employeeRequest)
+                .thenApply(response -> response.getPin() == null
+                        ? badRequest(toJson(response))
+                        : ok(toJson(response)))
+                .exceptionally(EmployeeController::invalidRequest);
+    }
+
+    public CompletionStage<Result> removeEmployee(Http.Request request, String employeeId) {
+        String token = request.header("Authorization").orElse(null);
+        return employeeManagement.removeEmployee(token, employeeId)
+                .thenApply(this::apiResult)
+                .exceptionally(EmployeeController::invalidRequest);
     }
 
-    public Result addEmployee(Http.Request request) {
+    public CompletionStage<Result> getEmployees(Http.Request request) {
+        String token = request.header("Authorization").orElse(null);
         try {
-            String token = request.header("Authorization").orElse(null);
-            JsonNode json = request.body().asJson();
-            EmployeeRequest employeeRequest = objectMapper.treeToValue(json, EmployeeRequest.class);
+            if (isStreamed(request)) {
+                return CompletableFuture.completedFuture(streamJsonArray(
+                        cursor -> employeeManagement.getEmployees(token, cursor, STREAM_PAGE_LIMIT)));
+            }
+            return employeeManagement.getEmployees(token, request.getQueryString("cursor"), pageLimit(request))
+                    .thenApply(employees -> ok(toJson(employees)))
+                    .exceptionally(EmployeeController::invalidRequest);
+        } catch (Exception e) {
+            return invalidRequestNow(e);
+        }
+    }
 
-            EmployeeResponse response = employeeManagement.addEmployee(token, employeeRequest);
+    public CompletionStage<Result> markAttendance(Http.Request request) {
+        String token = request.header("Authorization").orElse(null);
+        return employeeManagement.markAttendance(token)
+                .thenApply(response -> response.isSuccess()
+                        ? ok(toJson(response))
+                        : badRequest(toJson(response)))
+                .exceptionally(EmployeeController::invalidRequest);
+    }
 
-            if (response.getPin() == null) {
-                return badRequest(objectMapper.writeValueAsString(response));
+    public CompletionStage<Result> getDailyAttendance(Http.Request request, String date) {
+        String token = request.header("Authorization").orElse(null);
+        try {
+            LocalDate localDate = LocalDate.parse(date);
+            if (isStreamed(request)) {
+                return CompletableFuture.completedFuture(streamJsonArray(
+                        cursor -> employeeManagement.getDailyAttendance(token, localDate, cursor, STREAM_PAGE_LIMIT)));
             }
-
-            return ok(objectMapper.writeValueAsString(response));
+            return employeeManagement.getDailyAttendance(token, localDate, request.getQueryString("cursor"), pageLimit(request))
+                    .thenApply(attendances -> ok(toJson(attendances)))
+                    .exceptionally(EmployeeController::invalidRequest);
         } catch (Exception e) {
-            return badRequest("Invalid request: " + e.getMessage());
+            return invalidRequestNow(e);
         }
     }
 
-    public Result removeEmployee(Http.Request request, String employeeId) {
+    public CompletionStage<Result> updatePassword(Http.Request request) {
+        String token = request.header("Authorization").orElse(null);
+        UpdatePasswordRequest passwordRequest;
         try {
-            String token = request.header("Authorization").orElse(null);
-            ApiResponse response = employeeManagement.removeEmployee(token, employeeId);
+            passwordRequest = objectMapper.treeToValue(request.body().asJson(), UpdatePasswordRequest.class);
+        } catch (Exception e) {
+            return invalidRequestNow(e);
+        }
 
-            if (!response.isSuccess()) {
-                return badRequest(objectMapper.writeValueAsString(response));
-            }
+        return employeeManagement.updatePassword(token, passwordRequest)
+                .thenApply(this::apiResult)
+                .exceptionally(EmployeeController::invalidRequest);
+    }
 
-            return ok(objectMapper.writeValueAsString(response));
+    public CompletionStage<Result> getDepartmentAttendance(Http.Request request) {
+        String token = request.header("Authorization").orElse(null);
+        try {
+            LocalDate from = LocalDate.parse(request.getQueryString("from"));
+            LocalDate to = LocalDate.parse(request.getQueryString("to"));
+            return employeeManagement.getDepartmentAttendance(token, from, to)
+                    .thenApply(summaries -> ok(toJson(summaries)))
+                    .exceptionally(EmployeeController::invalidRequest);
         } catch (Exception e) {
-            return badRequest("Invalid request: " + e.getMessage());
+            return invalidRequestNow(e);
         }
     }
 
-    public Result getEmployees(Http.Request request) {
+    public CompletionStage<Result> getEmployeeAttendance(Http.Request request, String employeeId) {
+        String token = request.header("Authorization").orElse(null);
         try {
-            String token = request.header("Authorization").orElse(null);
-            var employees = employeeManagement.getEmployees(token);
-            return ok(objectMapper.writeValueAsString(employees));
+            YearMonth from = YearMonth.parse(request.getQueryString("from"));
+            YearMonth to = YearMonth.parse(request.getQueryString("to"));
+            return employeeManagement.getEmployeeAttendance(token, employeeId, from, to)
+                    .thenApply(summaries -> ok(toJson(summaries)))
+                    .exceptionally(EmployeeController::invalidRequest);
         } catch (Exception e) {
-            return badRequest("Invalid request: " + e.getMessage());
+            return invalidRequestNow(e);
         }
     }
 
-    public Result markAttendance(Http.Request request) {
+    public CompletionStage<Result> getMonthlyPresence(Http.Request request, String employeeId, String month) {
+        String token = request.header("Authorization").orElse(null);
         try {
-            String token = request.header("Authorization").orElse(null);
-            AttendanceResponse response = employeeManagement.markAttendance(token);
-
-            if (!response.isSuccess()) {
-                return badRequest(objectMapper.writeValueAsString(response));
-            }
+            return employeeManagement.getMonthlyPresence(token, employeeId, YearMonth.parse(month))
+                    .thenApply(presence -> presence == null
+                            ? unauthorized("Unauthorized")
+                            : ok(toJson(presence)))
+                    .exceptionally(EmployeeController::invalidRequest);
+        } catch (Exception e) {
+            return invalidRequestNow(e);
+        }
+    }
 
-            return ok(objectMapper.writeValueAsString(response));
+    public CompletionStage<Result> getAbsentees(Http.Request request, String date) {
+        String token = request.header("Authorization").orElse(null);
+        try {
+            return employeeManagement.getAbsentees(token, LocalDate.parse(date))
+                    .thenApply(absentees -> ok(toJson(absentees)))
+                    .exceptionally(EmployeeController::invalidRequest);
         } catch (Exception e) {
-            return badRequest("Invalid request: " + e.getMessage());
+            return invalidRequestNow(e);
         }
     }
 
-    public Result getDailyAttendance(Http.Request request, String date) {
+    /**
+     * Takes a {@code text/csv} or {@code application/x-ndjson} upload. The raw parser keeps
+     * small bodies in memory and spills larger ones to a temporary file, which is read back a
+     * line at a time. Files over {@code employee.bulk-import.max-rows} rows are imported only
+     * up to that many.
+     */
+    @BodyParser.Of(BodyParser.Raw.class)
+    public CompletionStage<Result> importEmployees(Http.Request request) {
+        String token = request.header("Authorization").orElse(null);
+        ImportFormat format = importFormat(request.contentType().orElse(""));
+        if (format == null) {
+            return CompletableFuture.completedFuture(
+                    status(UNSUPPORTED_MEDIA_TYPE, "Expected text/csv or application/x-ndjson"));
+        }
+
+        InputStream input;
         try {
-            String token = request.header("Authorization").orElse(null);
-            LocalDate localDate = LocalDate.parse(date);
-            var attendances = employeeManagement.getDailyAttendance(token, localDate);
-            return ok(objectMapper.writeValueAsString(attendances));
+            Http.RawBuffer body = request.body().asRaw();
+            if (body == null) {
+                return CompletableFuture.completedFuture(badRequest("Invalid request: empty body"));
+            }
+            ByteString bytes = body.asBytes();
+            input = bytes != null ? new ByteArrayInputStream(bytes.toArray()) : new FileInputStream(body.asFile());
         } catch (Exception e) {
-            return badRequest("Invalid request: " + e.getMessage());
+            return invalidRequestNow(e);
         }
+
+        return employeeManagement.importEmployees(token, input, format)
+                .thenApply(response -> response.isSuccess()
+                        ? ok(toJson(response))
+                        : badRequest(toJson(response)))
+                .exceptionally(EmployeeController::invalidRequest);
     }
 
-    public Result updatePassword(Http.Request request) {
+    private Result apiResult(ApiResponse response) {
+        return response.isSuccess() ? ok(toJson(response)) : badRequest(toJson(response));
+    }
+
+    private String toJson(Object value) {
         try {
-            String token = request.header("Authorization").orElse(null);
-            JsonNode json = request.body().asJson();
-            UpdatePasswordRequest passwordRequest = objectMapper.treeToValue(json, UpdatePasswordRequest.class);
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-            ApiResponse response = employeeManagement.updatePassword(token, passwordRequest);
+    private static Result invalidRequest(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return badRequest("Invalid request: " + cause.getMessage());
+    }
 
-            if (!response.isSuccess()) {
-                return badRequest(objectMapper.writeValueAsString(response));
-            }
+    private static CompletionStage<Result> invalidRequestNow(Exception e) {
+        return CompletableFuture.completedFuture(invalidRequest(e));
+    }
 
-            return ok(objectMapper.writeValueAsString(response));
-        } catch (Exception e) {
-            return badRequest("Invalid request: " + e.getMessage());
+    private static boolean isStreamed(Http.Request request) {
+        return "true".equals(request.getQueryString("stream"));
+    }
+
+    private static ImportFormat importFormat(String contentType) {
+        switch (contentType.toLowerCase()) {
+            case "text/csv":
+                return ImportFormat.CSV;
+            case "application/x-ndjson":
+            case "application/ndjson":
+                return ImportFormat.NDJSON;
+            default:
+                return null;
         }
     }
-}
\ No newline at end of file
+
+    private static int pageLimit(Http.Request request) {
+        String limit = request.getQueryString("limit");
+        return limit == null ? DEFAULT_PAGE_LIMIT : Integer.parseInt(limit);
+    }
+
+    /**
+     * Responds with a chunked JSON array, read page by page through the keyset queries. A
+     * page is only fetched once the client has taken the one before, and each fetch holds a
+     * database thread and connection just for its own query, so a slow reader holds neither.
+     * Pages are separate reads: rows added meanwhile may show up, but none is repeated or
+     * skipped. An unauthorized token gets an empty array.
+     */
+    private <T> Result streamJsonArray(Function<String, CompletionStage<Page<T>>> fetchPage) {
+        Source<ByteString, NotUsed> body = Source.<Optional<String>, List<T>>unfoldAsync(Optional.of(""), cursor ->
+                        cursor.isPresent()
+                                ? fetchPage.apply(cursor.get()).thenApply(page -> Optional.of(Pair.create(
+                                Optional.ofNullable(page.getNextCursor()), page.getItems())))
+                                : CompletableFuture.completedFuture(Optional.empty()))
+                .mapConcat(items -> items)
+                .map(item -> ByteString.fromArray(objectMapper.writeValueAsBytes(item)))
+                .intersperse(ByteString.fromString("["), ByteString.fromString(","), ByteString.fromString("]"))
+                // Ends the response early, so a client sees a truncated array rather than a short one
+                .mapError(new PFBuilder<Throwable, Throwable>().match(Throwable.class, error -> {
+                    logger.error("Failed to stream response", error);
+                    return error;
+                }).build());
+        return ok().chunked(body).as(Http.MimeTypes.JSON);
+    }
+}
@@ -3,7 +3,6 @@ package controllers;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.bval.jsr.ApacheValidationProvider;
 import org.hibernate.validator.HibernateValidator;
-import play.db.jpa.Transactional;
 import play.mvc.Controller;
 import play.mvc.Result;
 
@@ -15,7 +14,6 @@ import javax.validation.Validator;
  * This controller contains an action to handle HTTP requests to the
  * application's home page.
  */
-@Transactional
 public class HomeController extends Controller {
 
     @Inject
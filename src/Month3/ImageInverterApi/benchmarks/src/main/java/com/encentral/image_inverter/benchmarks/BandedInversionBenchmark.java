@@ -0,0 +1,65 @@
+package com.encentral.image_inverter.benchmarks;
+
+import com.encentral.image_inverter.impl.ParallelRasterNegator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Banded (ForkJoin) against single-threaded negation of an already decoded raster.
+ * Negation is its own inverse, so re-running it on the same image keeps the work constant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class BandedInversionBenchmark {
+
+    @Param({"640x480", "1920x1080", "4000x3000", "6000x4000", "8000x6000"})
+    public String size;
+
+    @Param({"INT_RGB", "3BYTE_BGR", "4BYTE_ABGR"})
+    public String layout;
+
+    private BufferedImage image;
+    private ParallelRasterNegator negator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] dimensions = BenchmarkImages.dimensions(size);
+        image = BenchmarkImages.randomImage(dimensions[0], dimensions[1], BenchmarkImages.imageType(layout));
+        negator = new ParallelRasterNegator(0, Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        negator.close();
+    }
+
+    @Benchmark
+    public BufferedImage singleThreaded() {
+        negator.negateSingleThreaded(image);
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage banded() {
+        negator.negateBanded(image);
+        return image;
+    }
+}
@@ -0,0 +1,66 @@
+package com.encentral.image_inverter.benchmarks;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Test images shared by the suites. Pixels are seeded noise: the worst case for the codecs,
+ * but the same bytes on every run.
+ */
+final class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * Parses a {@code WIDTHxHEIGHT} benchmark parameter.
+     */
+    static int[] dimensions(String size) {
+        String[] parts = size.split("x");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    static int imageType(String layout) {
+        switch (layout) {
+            case "INT_RGB":
+                return BufferedImage.TYPE_INT_RGB;
+            case "INT_ARGB":
+                return BufferedImage.TYPE_INT_ARGB;
+            case "3BYTE_BGR":
+                return BufferedImage.TYPE_3BYTE_BGR;
+            case "4BYTE_ABGR":
+                return BufferedImage.TYPE_4BYTE_ABGR;
+            default:
+                throw new IllegalArgumentException("Unknown layout: " + layout);
+        }
+    }
+
+    static BufferedImage randomImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(42);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = random.nextInt();
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    /**
+     * A random RGB image of {@code size}, encoded as an upload in {@code format}.
+     */
+    static byte[] encodedImage(String size, String format) throws IOException {
+        int[] dimensions = dimensions(size);
+        BufferedImage image = randomImage(dimensions[0], dimensions[1], BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, output)) {
+            throw new IllegalArgumentException("No ImageIO writer for format: " + format);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,84 @@
+package com.encentral.image_inverter.benchmarks;
+
+import com.encentral.image_inverter.impl.DirectBufferPool;
+import com.encentral.image_inverter.impl.ImageIOInverter;
+import com.encentral.image_inverter.impl.ImageInverter;
+import com.encentral.image_inverter.impl.ImageMagickInverter;
+import com.encentral.image_inverter.impl.ImageMetrics;
+import com.encentral.image_inverter.impl.ParallelRasterNegator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole inversion, encoded upload in and encoded file out, with the in-JVM ImageIO
+ * engine against forking ImageMagick's {@code convert}. The ImageMagick runs fail at setup
+ * when {@code convert} is not on the PATH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class InversionEngineBenchmark {
+
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String size;
+
+    @Param({"jpg", "png", "bmp"})
+    public String format;
+
+    @Param({"ImageIO", "ImageMagick"})
+    public String engine;
+
+    private byte[] upload;
+    private File outputFile;
+    private ImageInverter inverter;
+    private ParallelRasterNegator negator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        upload = BenchmarkImages.encodedImage(size, format);
+        outputFile = File.createTempFile("inverted-", "." + format);
+        negator = new ParallelRasterNegator(4_000_000, Runtime.getRuntime().availableProcessors());
+
+        if ("ImageIO".equals(engine)) {
+            ImageMetrics metrics = new ImageMetrics();
+            inverter = new ImageIOInverter(negator, new DirectBufferPool(4 * 1024 * 1024, 64 * 1024 * 1024, metrics),
+                    metrics, 4 * 1024 * 1024);
+        } else {
+            inverter = new ImageMagickInverter(new ImageMetrics());
+            // Fail here rather than on every invocation
+            inverter.invert(new ByteArrayInputStream(upload), outputFile);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        negator.close();
+        Files.deleteIfExists(outputFile.toPath());
+    }
+
+    @Benchmark
+    public long invert() throws IOException {
+        inverter.invert(new ByteArrayInputStream(upload), outputFile);
+        return outputFile.length();
+    }
+}
@@ -0,0 +1,55 @@
+package com.encentral.image_inverter.benchmarks;
+
+import com.encentral.entities.JpaProcessedImage;
+import com.encentral.image_inverter.impl.ImageProcessingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-upload bookkeeping around an inversion: working out the extension, naming the
+ * output file and building its row. Tiny next to the inversion itself, measured to keep it so.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessedImageNamingBenchmark {
+
+    @Param({"holiday.JPG", "scan.final.v2.png", "no-extension", "a-rather-long-file-name-from-a-phone-camera.jpeg"})
+    public String fileName;
+
+    @Benchmark
+    public String fileExtension() {
+        return ImageProcessingService.getFileExtension(fileName);
+    }
+
+    @Benchmark
+    public UUID randomUuid() {
+        return UUID.randomUUID();
+    }
+
+    @Benchmark
+    public JpaProcessedImage uuidAndEntity() {
+        String fileExtension = ImageProcessingService.getFileExtension(fileName);
+        String processedFileName = UUID.randomUUID().toString() + "." + fileExtension;
+        return JpaProcessedImage.builder()
+                .filePath(Paths.get("uploads/processed", processedFileName).toString())
+                .originalFileName(fileName)
+                .fileSize(1024L)
+                .build();
+    }
+}
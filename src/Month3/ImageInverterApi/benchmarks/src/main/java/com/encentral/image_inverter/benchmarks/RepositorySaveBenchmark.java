@@ -0,0 +1,99 @@
+package com.encentral.image_inverter.benchmarks;
+
+import akka.actor.ActorSystem;
+import com.encentral.entities.JpaProcessedImage;
+import com.encentral.image_inverter.impl.DatabaseExecutionContext;
+import com.encentral.image_inverter.impl.ImageMetrics;
+import com.encentral.image_inverter.impl.ProcessedImageCache;
+import com.encentral.image_inverter.impl.ProcessedImageRepository;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import play.db.jpa.DefaultJPAApi;
+import play.db.jpa.JPA;
+import play.db.jpa.JPAApi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserting processed image rows through {@link ProcessedImageRepository}, one transaction
+ * per row against one transaction per batch, on an in-memory H2 database (the
+ * {@code benchmark} persistence unit). H2 has no network round trip, so real Postgres gains
+ * from batching are larger than measured here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositorySaveBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int rows;
+
+    private ActorSystem actorSystem;
+    private JPAApi jpaApi;
+    private ProcessedImageRepository repository;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        actorSystem = ActorSystem.create("benchmark", ConfigFactory.parseString(
+                "database.dispatcher { executor = thread-pool-executor, thread-pool-executor.fixed-pool-size = 4 }"));
+        jpaApi = JPA.createFor("benchmark");
+        // A cache of size 0 stores nothing, so only the insert is measured
+        ImageMetrics metrics = new ImageMetrics();
+        repository = new ProcessedImageRepository(jpaApi, new DatabaseExecutionContext(actorSystem, metrics),
+                new ProcessedImageCache(0, 0, metrics), metrics);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ((DefaultJPAApi) jpaApi).shutdown();
+        actorSystem.terminate();
+        actorSystem.getWhenTerminated().toCompletableFuture().join();
+    }
+
+    @Benchmark
+    public List<JpaProcessedImage> saveEach() {
+        List<CompletableFuture<JpaProcessedImage>> saved = new ArrayList<>(rows);
+        for (JpaProcessedImage image : newImages()) {
+            saved.add(repository.save(image).toCompletableFuture());
+        }
+        List<JpaProcessedImage> images = new ArrayList<>(rows);
+        saved.forEach(future -> images.add(future.join()));
+        return images;
+    }
+
+    @Benchmark
+    public List<JpaProcessedImage> saveAll() {
+        return repository.saveAll(newImages()).toCompletableFuture().join();
+    }
+
+    private List<JpaProcessedImage> newImages() {
+        List<JpaProcessedImage> images = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            images.add(JpaProcessedImage.builder()
+                    .filePath("uploads/processed/" + UUID.randomUUID() + ".jpg")
+                    .originalFileName("upload-" + i + ".jpg")
+                    .fileSize(1024L)
+                    .build());
+        }
+        return images;
+    }
+}
@@ -0,0 +1,89 @@
+package com.encentral.image_inverter.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A multipart upload to {@code POST /api/images/upload}, timed from the first byte sent to
+ * the JSON response: parsing, inversion, writing the file and saving the row.
+ * <p>
+ * The service gateway is a play2-packaged app that other modules can't depend on, so this
+ * suite does not start it: run it separately against its database, then point the suite at
+ * it, e.g. {@code java -jar benchmarks.jar UploadEndToEnd -p baseUrl=http://localhost:9000}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UploadEndToEndBenchmark {
+
+    private static final String BOUNDARY = "benchmark-" + UUID.randomUUID();
+
+    @Param("http://localhost:9000")
+    public String baseUrl;
+
+    @Param({"640x480", "1920x1080", "4000x3000"})
+    public String size;
+
+    @Param({"jpg", "png"})
+    public String format;
+
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        byte[] body = multipartBody(BenchmarkImages.encodedImage(size, format));
+        request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/images/upload"))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        // Fail here, with a useful message, if the gateway isn't up
+        upload();
+    }
+
+    @Benchmark
+    public String upload() throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 201) {
+            throw new IllegalStateException("Upload to " + baseUrl + " failed with "
+                    + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+
+    private byte[] multipartBody(byte[] image) throws IOException {
+        String contentType = "jpg".equals(format) ? "image/jpeg" : "image/" + format;
+        ByteArrayOutputStream body = new ByteArrayOutputStream(image.length + 512);
+        body.write(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"image\"; filename=\"benchmark." + format + "\"\r\n"
+                + "Content-Type: " + contentType + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(image);
+        body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+}
@@ -0,0 +1,45 @@
+package com.encentral.entities;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Entity
+@Table(name = "processed_image_variants")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class JpaImageVariant {
+
+    @Id
+    private UUID id;
+
+    // The JpaProcessedImage this is a resized copy of
+    @Column(nullable = false)
+    private UUID imageId;
+
+    @Column(nullable = false)
+    private Integer width;
+
+    @Column(nullable = false, unique = true)
+    private String filePath;
+
+    @Column(nullable = false)
+    private Long fileSize;
+
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        if (id == null) {
+            id = UUID.randomUUID();
+        }
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
+    }
+}
@@ -26,6 +26,10 @@ public class JpaProcessedImage {
     @Column(nullable = false)
     private Long fileSize;
 
+    // SHA-256 of the uploaded bytes, only set when stored content-addressed
+    @Column(length = 64)
+    private String contentHash;
+
     @Column(nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
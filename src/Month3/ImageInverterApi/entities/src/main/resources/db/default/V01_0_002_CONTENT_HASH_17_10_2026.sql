@@ -0,0 +1,6 @@
+ALTER TABLE processed_images ADD COLUMN content_hash VARCHAR(64);
+
+-- Lookups by hash decide whether an upload was already processed
+CREATE INDEX idx_processed_images_content_hash ON processed_images(content_hash);
+
+COMMENT ON COLUMN processed_images.content_hash IS 'SHA-256 of the uploaded bytes, set for content-addressed images';
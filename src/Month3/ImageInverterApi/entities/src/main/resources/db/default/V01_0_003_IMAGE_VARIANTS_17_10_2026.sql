@@ -0,0 +1,16 @@
+CREATE TABLE processed_image_variants (
+    id VARCHAR(36) PRIMARY KEY,
+    image_id VARCHAR(36) NOT NULL REFERENCES processed_images(id) ON DELETE CASCADE,
+    width INTEGER NOT NULL,
+    file_path VARCHAR(255) NOT NULL UNIQUE,
+    file_size BIGINT NOT NULL,
+    created_at TIMESTAMP NOT NULL,
+    UNIQUE (image_id, width)
+);
+
+COMMENT ON TABLE processed_image_variants IS 'Resized copies of processed images, generated on request';
+COMMENT ON COLUMN processed_image_variants.image_id IS 'Processed image this variant was resized from';
+COMMENT ON COLUMN processed_image_variants.width IS 'Requested width in pixels; never wider than the original';
+COMMENT ON COLUMN processed_image_variants.file_path IS 'File system path to the variant file';
+COMMENT ON COLUMN processed_image_variants.file_size IS 'Size of the variant file in bytes';
+COMMENT ON COLUMN processed_image_variants.created_at IS 'Timestamp when the variant was generated';
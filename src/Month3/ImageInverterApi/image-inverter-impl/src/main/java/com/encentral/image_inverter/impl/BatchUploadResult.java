@@ -0,0 +1,29 @@
+package com.encentral.image_inverter.impl;
+
+import com.encentral.entities.JpaProcessedImage;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Outcome of one uploaded file: the saved image, or why it was not saved.
+ */
+@Data
+@AllArgsConstructor
+public class BatchUploadResult {
+
+    private final String fileName;
+    private final JpaProcessedImage image;
+    private final String error;
+
+    public static BatchUploadResult processed(String fileName, JpaProcessedImage image) {
+        return new BatchUploadResult(fileName, image, null);
+    }
+
+    public static BatchUploadResult failed(String fileName, String error) {
+        return new BatchUploadResult(fileName, null, error);
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+}
@@ -0,0 +1,28 @@
+package com.encentral.image_inverter.impl;
+
+import akka.actor.ActorSystem;
+import play.libs.concurrent.CustomExecutionContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Runs blocking JDBC work. Backed by the {@code database.dispatcher} thread pool, which is
+ * sized to the Hikari pool so every thread can hold a connection and none queue for one.
+ */
+@Singleton
+public class DatabaseExecutionContext extends CustomExecutionContext {
+
+    private final ImageMetrics metrics;
+
+    @Inject
+    public DatabaseExecutionContext(ActorSystem actorSystem, ImageMetrics metrics) {
+        super(actorSystem, "database.dispatcher");
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(metrics.queued(ImageMetrics.EXECUTOR_DATABASE, command));
+    }
+}
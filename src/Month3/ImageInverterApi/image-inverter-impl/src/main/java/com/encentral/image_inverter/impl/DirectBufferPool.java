@@ -0,0 +1,107 @@
+package com.encentral.image_inverter.impl;
+
+import com.typesafe.config.Config;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable direct buffers for encoded image data, so uploads are held off-heap instead of in
+ * fresh {@code byte[]}s that large images push straight into the old generation.
+ * <p>
+ * Buffers come in power-of-two size classes from 16KB to {@code image.buffers.max-buffer-size}.
+ * Released buffers are kept for reuse while the idle ones total at most
+ * {@code image.buffers.max-pooled}; beyond that, or when larger than the biggest class, they
+ * are left for the garbage collector to free.
+ */
+@Singleton
+public class DirectBufferPool {
+
+    private static final int MIN_BUFFER_SIZE = 16 * 1024;
+
+    private final int maxBufferSize;
+    private final long maxPooledBytes;
+    private final ImageMetrics metrics;
+    private final List<Queue<ByteBuffer>> idle = new ArrayList<>();
+    private final AtomicLong idleBytes = new AtomicLong();
+    private final AtomicLong inUseBytes = new AtomicLong();
+
+    @Inject
+    public DirectBufferPool(Config config, ImageMetrics metrics) {
+        this(Math.toIntExact(config.getBytes("image.buffers.max-buffer-size")),
+                config.getBytes("image.buffers.max-pooled"), metrics);
+    }
+
+    public DirectBufferPool(int maxBufferSize, long maxPooledBytes, ImageMetrics metrics) {
+        this.maxBufferSize = sizeClass(Math.max(MIN_BUFFER_SIZE, maxBufferSize));
+        this.maxPooledBytes = maxPooledBytes;
+        this.metrics = metrics;
+        for (int size = MIN_BUFFER_SIZE; size <= this.maxBufferSize; size <<= 1) {
+            idle.add(new ConcurrentLinkedQueue<>());
+        }
+
+        metrics.registerGauge("image_buffer_pool_idle_bytes",
+                "Direct buffer memory held by the pool for reuse.", idleBytes::get);
+        metrics.registerGauge("image_buffer_pool_in_use_bytes",
+                "Direct buffer memory handed out by the pool and not yet released.", inUseBytes::get);
+        metrics.registerGauge("image_buffer_pool_max_pooled_bytes",
+                "Most direct buffer memory the pool keeps idle.", () -> this.maxPooledBytes);
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * A cleared buffer of at least {@code capacity} bytes, to be handed back with {@link #release}.
+     */
+    public ByteBuffer acquire(int capacity) {
+        ByteBuffer buffer = null;
+        if (capacity <= maxBufferSize) {
+            int size = sizeClass(Math.max(MIN_BUFFER_SIZE, capacity));
+            buffer = idle.get(classIndex(size)).poll();
+            if (buffer != null) {
+                idleBytes.addAndGet(-size);
+            } else {
+                capacity = size;
+            }
+        }
+        metrics.bufferAcquired(buffer != null);
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        inUseBytes.addAndGet(buffer.capacity());
+        return buffer.clear();
+    }
+
+    public void release(ByteBuffer buffer) {
+        int size = buffer.capacity();
+        inUseBytes.addAndGet(-size);
+        if (size > maxBufferSize || size != sizeClass(size)) {
+            return;
+        }
+        long pooled;
+        do {
+            pooled = idleBytes.get();
+            if (pooled + size > maxPooledBytes) {
+                return;
+            }
+        } while (!idleBytes.compareAndSet(pooled, pooled + size));
+        idle.get(classIndex(size)).offer(buffer);
+    }
+
+    private static int sizeClass(int capacity) {
+        int size = Integer.highestOneBit(capacity);
+        return size == capacity ? size : size << 1;
+    }
+
+    private static int classIndex(int size) {
+        return Integer.numberOfTrailingZeros(size) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,142 @@
+package com.encentral.image_inverter.impl;
+
+import com.typesafe.config.Config;
+import io.prometheus.client.Histogram;
+import play.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Pure-Java inverter: decodes with ImageIO, negates the raster in place and encodes
+ * back to the format the upload was decoded from.
+ * <p>
+ * Encoded input is kept off the heap: uploads are cached in pooled direct buffers as the
+ * decoder reads them, and files of at least {@code image.buffers.map-threshold} bytes are
+ * memory-mapped.
+ */
+@Singleton
+public class ImageIOInverter implements ImageInverter {
+
+    private static final Logger.ALogger logger = Logger.of(ImageIOInverter.class);
+
+    // Formats whose files may hold several frames; ImageIO only round-trips the first one,
+    // so these are left to ImageMagick
+    private static final Set<String> MULTI_FRAME_FORMATS = Set.of("gif", "tif", "tiff");
+
+    private final ParallelRasterNegator negator;
+    private final DirectBufferPool bufferPool;
+    private final ImageMetrics metrics;
+    private final long mapThreshold;
+
+    @Inject
+    public ImageIOInverter(ParallelRasterNegator negator, DirectBufferPool bufferPool, ImageMetrics metrics,
+                           Config config) {
+        this(negator, bufferPool, metrics, config.getBytes("image.buffers.map-threshold"));
+    }
+
+    public ImageIOInverter(ParallelRasterNegator negator, DirectBufferPool bufferPool, ImageMetrics metrics,
+                           long mapThreshold) {
+        this.negator = negator;
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+        this.mapThreshold = mapThreshold;
+    }
+
+    @Override
+    public boolean supports(String fileExtension) {
+        return !MULTI_FRAME_FORMATS.contains(fileExtension)
+                && ImageIO.getImageReadersBySuffix(fileExtension).hasNext()
+                && ImageIO.getImageWritersBySuffix(fileExtension).hasNext();
+    }
+
+    @Override
+    public void invert(InputStream inputStream, File outputFile) throws IOException {
+        // Cache off-heap rather than in ImageIO's default temp file, the upload never touches disk
+        try (ImageInputStream input = new PooledCacheImageInputStream(inputStream, bufferPool)) {
+            invert(input, outputFile);
+        }
+    }
+
+    @Override
+    public void invert(Path inputFile, File outputFile) throws IOException {
+        try (ImageInputStream input = open(inputFile)) {
+            invert(input, outputFile);
+        }
+    }
+
+    /**
+     * An ImageIO stream over an upload that keeps everything read, so it can still be
+     * {@link PooledCacheImageInputStream#replay replayed} to another engine if ImageIO fails.
+     */
+    public PooledCacheImageInputStream openReplayable(InputStream inputStream) {
+        return new PooledCacheImageInputStream(inputStream, bufferPool, true);
+    }
+
+    /**
+     * An ImageIO stream over a file: mapped if it is large, read from disk as needed otherwise.
+     */
+    public ImageInputStream open(Path file) throws IOException {
+        long size = Files.size(file);
+        if (size >= mapThreshold && size <= Integer.MAX_VALUE) {
+            return new MappedImageInputStream(file);
+        }
+        return new FileImageInputStream(file.toFile());
+    }
+
+    public void invert(ImageInputStream input, File outputFile) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException("No ImageIO reader for: " + outputFile.getName());
+        }
+
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            String formatName = reader.getFormatName().toLowerCase(Locale.ROOT);
+
+            // Decoding also covers receiving the upload, which is read as it is decoded
+            Histogram.Timer timer = metrics.startStage(ImageMetrics.STAGE_DECODE);
+            BufferedImage decoded = reader.read(0);
+            timer.observeDuration();
+
+            timer = metrics.startStage(ImageMetrics.STAGE_INVERT);
+            BufferedImage inverted = invert(decoded);
+            timer.observeDuration();
+
+            timer = metrics.startStage(ImageMetrics.STAGE_ENCODE);
+            try {
+                if (!ImageIO.write(inverted, formatName, outputFile)) {
+                    throw new IOException("No ImageIO writer for format: " + formatName);
+                }
+            } finally {
+                timer.observeDuration();
+            }
+            logger.debug("ImageIO inversion completed for: {} ({})", outputFile.getName(), formatName);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    public BufferedImage invert(BufferedImage image) {
+        if (RasterNegator.isPalette(image)) {
+            return RasterNegator.invertPalette(image);
+        }
+        BufferedImage negatable = RasterNegator.toNegatable(image);
+        negator.negate(negatable);
+        return negatable;
+    }
+}
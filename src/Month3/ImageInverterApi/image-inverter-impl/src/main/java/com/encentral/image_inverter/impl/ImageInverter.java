@@ -0,0 +1,34 @@
+package com.encentral.image_inverter.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Engine that writes a colour-negated copy of an image file.
+ */
+public interface ImageInverter {
+
+    /**
+     * @param fileExtension lower-case extension of the uploaded file, without the dot
+     * @return whether this engine can decode and re-encode files of that type
+     */
+    boolean supports(String fileExtension);
+
+    /**
+     * Reads the encoded image from {@code input} as it arrives and writes the inverted
+     * image to {@code outputFile}. The stream is not closed.
+     */
+    void invert(InputStream input, File outputFile) throws IOException;
+
+    /**
+     * Writes the inverted image of a file already on disk to {@code outputFile}.
+     */
+    default void invert(Path input, File outputFile) throws IOException {
+        try (InputStream stream = Files.newInputStream(input)) {
+            invert(stream, outputFile);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.encentral.image_inverter.impl;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Progress of one upload submitted to {@link ImageJobQueue}. Updated by the worker that runs
+ * it and read by status requests, hence the volatile fields.
+ */
+public class ImageJob {
+
+    public enum Status {
+        QUEUED, PROCESSING, COMPLETED, FAILED
+    }
+
+    private final UUID id = UUID.randomUUID();
+    private final String originalFileName;
+    private final LocalDateTime submittedAt = LocalDateTime.now();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile UUID imageId;
+    private volatile String error;
+    private volatile long finishedAtNanos;
+
+    ImageJob(String originalFileName) {
+        this.originalFileName = originalFileName;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getOriginalFileName() {
+        return originalFileName;
+    }
+
+    public LocalDateTime getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * The processed image, once the job has {@link Status#COMPLETED}.
+     */
+    public UUID getImageId() {
+        return imageId;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+
+    long getFinishedAtNanos() {
+        return finishedAtNanos;
+    }
+
+    void started() {
+        status = Status.PROCESSING;
+    }
+
+    void completed(UUID imageId) {
+        this.imageId = imageId;
+        finishedAtNanos = System.nanoTime();
+        status = Status.COMPLETED;
+    }
+
+    void failed(String error) {
+        this.error = error;
+        finishedAtNanos = System.nanoTime();
+        status = Status.FAILED;
+    }
+}
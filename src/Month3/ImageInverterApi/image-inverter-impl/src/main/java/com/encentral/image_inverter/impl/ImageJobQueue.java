@@ -0,0 +1,139 @@
+package com.encentral.image_inverter.impl;
+
+import com.encentral.entities.JpaProcessedImage;
+import com.typesafe.config.Config;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs uploads that were spooled to disk in the background, so the request that submitted
+ * them can return straight away. At most {@code image.jobs.workers} jobs run at once and at
+ * most {@code image.jobs.queue-capacity} wait; beyond that {@link #submit} refuses the job
+ * rather than letting callers queue up behind it.
+ * <p>
+ * Jobs live in memory only: their status is forgotten {@code image.jobs.retention} after
+ * they finish, or when the application restarts.
+ */
+@Singleton
+public class ImageJobQueue {
+
+    private static final Logger.ALogger logger = Logger.of(ImageJobQueue.class);
+
+    private final ImageProcessingService imageProcessingService;
+    private final ThreadPoolExecutor executor;
+    private final long retentionNanos;
+    private final Map<UUID, ImageJob> jobs = new ConcurrentHashMap<>();
+
+    @Inject
+    public ImageJobQueue(Config config, ApplicationLifecycle lifecycle, ImageProcessingService imageProcessingService,
+                         ImageMetrics metrics) {
+        this(imageProcessingService,
+                resolveWorkers(config.getInt("image.jobs.workers")),
+                config.getInt("image.jobs.queue-capacity"),
+                config.getDuration("image.jobs.retention").toNanos());
+        metrics.registerGauge("image_jobs_queued", "Image jobs waiting for a worker.",
+                () -> executor.getQueue().size());
+        metrics.registerGauge("image_jobs_running", "Image jobs being processed by a worker.",
+                executor::getActiveCount);
+        lifecycle.addStopHook(() -> {
+            close();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public ImageJobQueue(ImageProcessingService imageProcessingService, int workers, int queueCapacity,
+                         long retentionNanos) {
+        this.imageProcessingService = imageProcessingService;
+        this.retentionNanos = retentionNanos;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "image-job-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Image jobs run on {} workers with {} queue slots", workers, queueCapacity);
+    }
+
+    private static int resolveWorkers(int configured) {
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Whether a job submitted now would be refused. Lets callers turn uploads away before
+     * reading them; {@link #submit} can still refuse one if the queue fills up meanwhile.
+     */
+    public boolean isSaturated() {
+        return executor.getQueue().remainingCapacity() == 0;
+    }
+
+    /**
+     * Queues a spooled upload for processing. The job takes ownership of the file and deletes
+     * it when done.
+     *
+     * @return the queued job, or empty if the queue is full, in which case the file is untouched
+     */
+    public Optional<ImageJob> submit(Path spooledUpload, String originalFileName) {
+        removeExpiredJobs();
+        ImageJob job = new ImageJob(originalFileName);
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job, spooledUpload));
+            return Optional.of(job);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            return Optional.empty();
+        }
+    }
+
+    public Optional<ImageJob> find(UUID jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void run(ImageJob job, Path spooledUpload) {
+        job.started();
+        try (InputStream input = Files.newInputStream(spooledUpload)) {
+            // Blocks this worker until the image is saved, so workers bound the processing in flight
+            JpaProcessedImage image = imageProcessingService
+                    .processAndSaveImage(input, job.getOriginalFileName())
+                    .toCompletableFuture()
+                    .join();
+            job.completed(image.getId());
+        } catch (Exception e) {
+            logger.error("Image job {} failed", job.getId(), e);
+            job.failed("Image processing failed");
+        } finally {
+            try {
+                Files.deleteIfExists(spooledUpload);
+            } catch (IOException e) {
+                logger.warn("Failed to delete spooled upload {}", spooledUpload, e);
+            }
+        }
+    }
+
+    private void removeExpiredJobs() {
+        long now = System.nanoTime();
+        jobs.values().removeIf(job -> job.isFinished() && now - job.getFinishedAtNanos() > retentionNanos);
+    }
+}
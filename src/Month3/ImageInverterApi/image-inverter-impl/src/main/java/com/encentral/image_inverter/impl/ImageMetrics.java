@@ -0,0 +1,141 @@
+package com.encentral.image_inverter.impl;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.GaugeMetricFamily;
+import io.prometheus.client.Histogram;
+
+import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Prometheus metrics for the image pipeline, in a registry of their own rather than the
+ * global default one, so a dev-mode reload that builds a new instance starts clean.
+ */
+@Singleton
+public class ImageMetrics {
+
+    public static final String STAGE_RECEIVE = "receive";
+    public static final String STAGE_DECODE = "decode";
+    public static final String STAGE_INVERT = "invert";
+    public static final String STAGE_ENCODE = "encode";
+    public static final String STAGE_IMAGEMAGICK = "imagemagick";
+    public static final String STAGE_FILE_SIZE = "file_size";
+    public static final String STAGE_PERSIST = "persist";
+    public static final String STAGE_CLEANUP = "cleanup";
+
+    public static final String EXECUTOR_PROCESSING = "processing";
+    public static final String EXECUTOR_DATABASE = "database";
+
+    private final CollectorRegistry registry = new CollectorRegistry();
+
+    private final Histogram stageSeconds = Histogram.build()
+            .name("image_processing_stage_seconds")
+            .help("Time spent in each stage of processing an image.")
+            .labelNames("stage")
+            .buckets(0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+            .register(registry);
+
+    private final Counter processed = Counter.build()
+            .name("image_processing_total")
+            .help("Images processed, by outcome.")
+            .labelNames("outcome")
+            .register(registry);
+
+    private final Gauge inFlight = Gauge.build()
+            .name("image_processing_in_flight")
+            .help("Images being received or processed right now.")
+            .register(registry);
+
+    private final Gauge queuedTasks = Gauge.build()
+            .name("image_executor_queued_tasks")
+            .help("Tasks submitted to an executor that have not started yet.")
+            .labelNames("executor")
+            .register(registry);
+
+    private final Counter reaperDeleted = Counter.build()
+            .name("image_reaper_deleted_total")
+            .help("Orphaned files and dangling rows deleted by the reaper.")
+            .labelNames("kind")
+            .register(registry);
+
+    private final Counter reaperReclaimedBytes = Counter.build()
+            .name("image_reaper_reclaimed_bytes_total")
+            .help("Disk space freed by the reaper.")
+            .register(registry);
+
+    private final Counter bufferAcquisitions = Counter.build()
+            .name("image_buffer_pool_acquired_total")
+            .help("Direct buffers handed out by the pool, by whether an idle one was reused.")
+            .labelNames("result")
+            .register(registry);
+
+    public CollectorRegistry getRegistry() {
+        return registry;
+    }
+
+    public Histogram.Timer startStage(String stage) {
+        return stageSeconds.labels(stage).startTimer();
+    }
+
+    public void processingStarted() {
+        inFlight.inc();
+    }
+
+    public void processingFinished(boolean successful) {
+        inFlight.dec();
+        processed.labels(successful ? "success" : "failure").inc();
+    }
+
+    public void reaped(String kind, long count, long bytes) {
+        reaperDeleted.labels(kind).inc(count);
+        reaperReclaimedBytes.inc(bytes);
+    }
+
+    public void bufferAcquired(boolean reused) {
+        bufferAcquisitions.labels(reused ? "reused" : "allocated").inc();
+    }
+
+    /**
+     * Wraps a task about to be handed to {@code executor}, so it counts as queued until a
+     * thread picks it up.
+     */
+    public Runnable queued(String executor, Runnable task) {
+        Gauge.Child queued = queuedTasks.labels(executor);
+        queued.inc();
+        return () -> {
+            queued.dec();
+            task.run();
+        };
+    }
+
+    /**
+     * Registers a gauge whose value is read from {@code value} on every scrape.
+     */
+    public void registerGauge(String name, String help, DoubleSupplier value) {
+        new Collector() {
+            @Override
+            public List<MetricFamilySamples> collect() {
+                return Collections.singletonList(new GaugeMetricFamily(name, help, value.getAsDouble()));
+            }
+        }.register(registry);
+    }
+
+    /**
+     * Registers a counter whose total is read from {@code value} on every scrape, for counts
+     * kept elsewhere that only ever grow.
+     */
+    public void registerCounter(String name, String help, DoubleSupplier value) {
+        new Collector() {
+            @Override
+            public List<MetricFamilySamples> collect() {
+                return Collections.singletonList(new CounterMetricFamily(name, help, value.getAsDouble()));
+            }
+        }.register(registry);
+    }
+}
@@ -1,134 +1,327 @@
 package com.encentral.image_inverter.impl;
 
+import akka.NotUsed;
 import akka.actor.ActorSystem;
+import akka.stream.javadsl.Source;
 import com.encentral.entities.JpaProcessedImage;
-import org.im4java.core.ConvertCmd;
-import org.im4java.core.IM4JavaException;
-import org.im4java.core.IMOperation;
+import com.typesafe.config.Config;
+import io.prometheus.client.Histogram;
 import play.Logger;
+import scala.concurrent.ExecutionContextExecutor;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionStage;
-
-import static akka.dispatch.Futures.future;
-import static scala.compat.java8.FutureConverters.toJava;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Singleton
 public class ImageProcessingService {
 
     private static final Logger.ALogger logger = Logger.of(ImageProcessingService.class);
-    private static final String UPLOAD_DIR = "uploads/processed";
+    private static final String PROCESSING_DISPATCHER = "image.processing.dispatcher";
+    private static final Duration INSERT_BATCH_WINDOW = Duration.ofMillis(200);
+    // Outcomes of one batch awaited at once; processing itself is bounded by ProcessingPermits
+    private static final int MAX_PENDING_RESULTS = 256;
 
-    private final ActorSystem actorSystem;
+    private final ExecutionContextExecutor processingDispatcher;
+    private final int insertBatchSize;
     private final ProcessedImageRepository repository;
+    private final ProcessedImageStore store;
+    private final ImageMetrics metrics;
+    private final ImageIOInverter primaryInverter;
+    private final ImageInverter fallbackInverter;
 
     @Inject
-    public ImageProcessingService(ActorSystem actorSystem, ProcessedImageRepository repository) {
-        this.actorSystem = actorSystem;
+    public ImageProcessingService(ActorSystem actorSystem, Config config, ProcessedImageRepository repository,
+                                  ProcessedImageStore store, ImageMetrics metrics, ImageIOInverter imageIOInverter,
+                                  ImageMagickInverter imageMagickInverter) {
+        this.processingDispatcher = actorSystem.dispatchers().lookup(PROCESSING_DISPATCHER);
+        this.insertBatchSize = config.getInt("image.batch.insert-size");
         this.repository = repository;
-        initializeUploadDirectory();
-        verifyImageMagickInstallation();
+        this.store = store;
+        this.metrics = metrics;
+        this.primaryInverter = imageIOInverter;
+        this.fallbackInverter = imageMagickInverter;
     }
 
-    private void initializeUploadDirectory() {
-        try {
-            Path uploadPath = Paths.get(UPLOAD_DIR);
-            if (!Files.exists(uploadPath)) {
-                Files.createDirectories(uploadPath);
-                logger.info("Created upload directory: {}", UPLOAD_DIR);
+    /**
+     * Inverts an upload while it is still arriving and writes the result straight to
+     * uploads/processed. Reading {@code source} blocks, so this runs on the dedicated
+     * processing dispatcher rather than the default one; the row is then saved on the
+     * database execution context.
+     */
+    public CompletionStage<JpaProcessedImage> processAndSaveImage(InputStream source, String originalFileName) {
+        return processImage(source, originalFileName)
+                .thenCompose(processedImage -> processedImage.getId() != null
+                        ? CompletableFuture.completedFuture(processedImage)
+                        : save(processedImage));
+    }
+
+    /**
+     * Inverts an upload into uploads/processed without saving it; the returned entity has
+     * no id yet. In content-addressed mode an upload whose bytes were processed before is not
+     * inverted again, and comes back as the existing, saved row instead. Pair with
+     * {@link #saveBatch} to persist many uploads together.
+     */
+    public CompletionStage<JpaProcessedImage> processImage(InputStream source, String originalFileName) {
+        metrics.processingStarted();
+        CompletionStage<JpaProcessedImage> processed;
+        if (!store.isContentAddressed()) {
+            processed = onProcessingDispatcher(() -> invertToUploadDirectory(source, originalFileName));
+        } else {
+            processed = onProcessingDispatcher(() -> spool(source))
+                    .thenCompose(upload -> repository.findByContentHash(upload.getContentHash())
+                            .thenCompose(existing -> existing.isPresent()
+                                    ? CompletableFuture.completedFuture(existing.get())
+                                    : onProcessingDispatcher(() -> invertSpooled(upload, originalFileName)))
+                            .whenComplete((processedImage, error) -> {
+                                Histogram.Timer timer = metrics.startStage(ImageMetrics.STAGE_CLEANUP);
+                                upload.close();
+                                timer.observeDuration();
+                            }));
+        }
+        return processed.whenComplete((processedImage, error) -> metrics.processingFinished(error == null));
+    }
+
+    private <T> CompletionStage<T> onProcessingDispatcher(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        processingDispatcher.execute(metrics.queued(ImageMetrics.EXECUTOR_PROCESSING, () -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
             }
-        } catch (IOException e) {
-            logger.error("Failed to create upload directory", e);
-            throw new RuntimeException("Failed to initialize upload directory", e);
+        }));
+        return result;
+    }
+
+    /**
+     * Emits each result as soon as it is ready, saving successful ones in batch inserts of
+     * up to {@code image.batch.insert-size} rows as they accumulate. {@code results} may
+     * still be growing while the upload is read.
+     */
+    public Source<BatchUploadResult, NotUsed> saveBatch(Source<CompletionStage<BatchUploadResult>, ?> results) {
+        return results
+                .mapAsyncUnordered(MAX_PENDING_RESULTS, result -> result)
+                .groupedWithin(insertBatchSize, INSERT_BATCH_WINDOW)
+                .mapAsync(1, this::saveProcessed)
+                .mapConcat(saved -> saved)
+                .mapMaterializedValue(ignored -> NotUsed.getInstance());
+    }
+
+    private CompletionStage<List<BatchUploadResult>> saveProcessed(List<BatchUploadResult> results) {
+        List<JpaProcessedImage> images = results.stream()
+                .filter(result -> result.isSuccessful() && result.getImage().getId() == null)
+                .map(BatchUploadResult::getImage)
+                .collect(Collectors.toList());
+        if (images.isEmpty()) {
+            return CompletableFuture.completedFuture(results);
         }
+        return repository.saveAll(images)
+                .handle((saved, error) -> error)
+                .thenCompose(error -> {
+                    if (error == null) {
+                        logger.info("Successfully processed and saved {} images", images.size());
+                        return CompletableFuture.completedFuture(results);
+                    }
+                    // One bad row, or a duplicate saved concurrently, fails the whole batch
+                    logger.warn("Batch insert failed, saving images one at a time", error);
+                    return saveOneByOne(results);
+                });
     }
 
-    private void verifyImageMagickInstallation() {
-        try {
-            ConvertCmd cmd = new ConvertCmd();
-            IMOperation op = new IMOperation();
-            op.version();
-            cmd.run(op);
-            logger.info("ImageMagick is installed and available");
-        } catch (Exception e) {
-            logger.warn("ImageMagick may not be installed or not in PATH: {}", e.getMessage());
-            logger.warn("Please install ImageMagick: sudo apt-get install imagemagick (Linux) or brew install imagemagick (Mac)");
+    private CompletionStage<List<BatchUploadResult>> saveOneByOne(List<BatchUploadResult> results) {
+        List<CompletableFuture<BatchUploadResult>> saved = results.stream()
+                .map(result -> !result.isSuccessful() || result.getImage().getId() != null
+                        ? CompletableFuture.completedFuture(result)
+                        : save(result.getImage())
+                        .handle((image, error) -> error == null
+                                ? BatchUploadResult.processed(result.getFileName(), image)
+                                : BatchUploadResult.failed(result.getFileName(), "Failed to save image"))
+                        .toCompletableFuture())
+                .collect(Collectors.toList());
+        return CompletableFuture.allOf(saved.toArray(new CompletableFuture[0]))
+                .thenApply(done -> saved.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    private CompletionStage<JpaProcessedImage> save(JpaProcessedImage processedImage) {
+        return repository.save(processedImage)
+                .thenApply(CompletableFuture::completedFuture)
+                .exceptionally(error -> recoverFailedSave(processedImage, error))
+                .thenCompose(Function.identity())
+                .whenComplete((savedImage, error) -> {
+                    if (error == null) {
+                        logger.info("Successfully processed and saved image: {}", savedImage.getId());
+                    }
+                });
+    }
+
+    private CompletableFuture<JpaProcessedImage> recoverFailedSave(JpaProcessedImage processedImage, Throwable error) {
+        if (processedImage.getContentHash() == null) {
+            logger.error("Failed to save processed image", error);
+            // Clean up output file, it has no row pointing at it
+            new File(processedImage.getFilePath()).delete();
+            return CompletableFuture.failedFuture(error);
         }
+        // A concurrent upload of the same bytes may have saved the row first. The file is kept
+        // either way: it may be that row's, and the same bytes would produce it again anyway.
+        return repository.findByContentHash(processedImage.getContentHash())
+                .thenCompose(existing -> {
+                    if (existing.isPresent()) {
+                        return CompletableFuture.completedFuture(existing.get());
+                    }
+                    logger.error("Failed to save processed image", error);
+                    return CompletableFuture.<JpaProcessedImage>failedFuture(error);
+                })
+                .toCompletableFuture();
     }
 
-    public CompletionStage<JpaProcessedImage> processAndSaveImage(File sourceFile, String originalFileName) {
-        return toJava(future(() -> {
-            File outputFile = null;
+    private JpaProcessedImage invertToUploadDirectory(InputStream source, String originalFileName) throws IOException {
+        File outputFile = null;
+        try {
+            // Generate unique filename
+            String fileExtension = getFileExtension(originalFileName);
+            Path outputPath = store.newImagePath(fileExtension);
+            outputFile = outputPath.toFile();
+
+            // Invert colors in-process, or with ImageMagick for files ImageIO can't handle
+            invert(source, outputFile, fileExtension);
+
+            // Get file size
+            Histogram.Timer timer = metrics.startStage(ImageMetrics.STAGE_FILE_SIZE);
+            long fileSize = Files.size(outputPath);
+            timer.observeDuration();
+
+            return JpaProcessedImage.builder()
+                    .filePath(outputPath.toString())
+                    .originalFileName(originalFileName)
+                    .fileSize(fileSize)
+                    .build();
+        } catch (Exception e) {
+            logger.error("Failed to process image", e);
+            // Clean up output file if it was created
+            if (outputFile != null && outputFile.exists()) {
+                outputFile.delete();
+            }
+            throw new RuntimeException("Image processing failed: " + e.getMessage(), e);
+        } finally {
+            // Drain anything the decoder left unread so the rest of the request can be read
+            Histogram.Timer timer = metrics.startStage(ImageMetrics.STAGE_CLEANUP);
             try {
-                // Generate unique filename
-                String fileExtension = getFileExtension(originalFileName);
-                String processedFileName = UUID.randomUUID().toString() + "." + fileExtension;
-                Path outputPath = Paths.get(UPLOAD_DIR, processedFileName);
-                outputFile = outputPath.toFile();
-
-                // Use ImageMagick to invert colors
-                invertImageWithImageMagick(sourceFile, outputFile);
-
-                // Get file size
-                long fileSize = Files.size(outputPath);
-
-                // Create and save entity
-                JpaProcessedImage processedImage = JpaProcessedImage.builder()
-                        .filePath(outputPath.toString())
-                        .originalFileName(originalFileName)
-                        .fileSize(fileSize)
-                        .build();
-
-                JpaProcessedImage savedImage = repository.save(processedImage);
-                logger.info("Successfully processed and saved image: {} using ImageMagick", savedImage.getId());
-
-                return savedImage;
-            } catch (Exception e) {
-                logger.error("Failed to process image", e);
-                // Clean up output file if it was created
-                if (outputFile != null && outputFile.exists()) {
-                    outputFile.delete();
-                }
-                throw new RuntimeException("Image processing failed: " + e.getMessage(), e);
+                source.transferTo(OutputStream.nullOutputStream());
             } finally {
-                // Clean up temporary source file
-                if (sourceFile.exists()) {
-                    sourceFile.delete();
-                }
+                source.close();
+                timer.observeDuration();
             }
-        }, actorSystem.dispatcher()));
+        }
     }
 
-    private void invertImageWithImageMagick(File inputFile, File outputFile)
-            throws IOException, InterruptedException, IM4JavaException {
+    private ProcessedImageStore.SpooledUpload spool(InputStream source) {
+        Histogram.Timer timer = metrics.startStage(ImageMetrics.STAGE_RECEIVE);
+        try {
+            return store.spool(source);
+        } catch (Exception e) {
+            logger.error("Failed to receive image", e);
+            throw new RuntimeException("Image processing failed: " + e.getMessage(), e);
+        } finally {
+            timer.observeDuration();
+        }
+    }
 
-        ConvertCmd cmd = new ConvertCmd();
+    private JpaProcessedImage invertSpooled(ProcessedImageStore.SpooledUpload upload, String originalFileName) {
+        Path partialPath = null;
+        try {
+            String fileExtension = getFileExtension(originalFileName);
+            Path outputPath = store.contentPath(upload.getContentHash(), fileExtension);
 
-        // Optional: Set ImageMagick path if not in system PATH
-        // cmd.setSearchPath("/usr/local/bin"); // Adjust as needed
+            // Already there if these bytes were processed before. Reusing it refreshes its age,
+            // so OrphanReaper leaves it alone until the row pointing at it is saved
+            if (!touch(outputPath)) {
+                // Keep the extension last, ImageMagick picks the output format from it
+                partialPath = outputPath.resolveSibling(
+                        upload.getContentHash() + ProcessedImageStore.PARTIAL_MARKER + UUID.randomUUID() + "." + fileExtension);
+                invert(upload.getFile(), partialPath.toFile(), fileExtension);
+                store.publish(partialPath, outputPath);
+            }
 
-        IMOperation op = new IMOperation();
-        op.addImage(inputFile.getAbsolutePath());
-        op.negate(); // This inverts the colors
-        op.addImage(outputFile.getAbsolutePath());
+            return JpaProcessedImage.builder()
+                    .filePath(outputPath.toString())
+                    .originalFileName(originalFileName)
+                    .fileSize(Files.size(outputPath))
+                    .contentHash(upload.getContentHash())
+                    .build();
+        } catch (Exception e) {
+            logger.error("Failed to process image", e);
+            if (partialPath != null) {
+                partialPath.toFile().delete();
+            }
+            throw new RuntimeException("Image processing failed: " + e.getMessage(), e);
+        }
+    }
 
-        logger.debug("Running ImageMagick command: convert {} -negate {}",
-                inputFile.getAbsolutePath(), outputFile.getAbsolutePath());
+    private static boolean touch(Path file) throws IOException {
+        try {
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
 
-        cmd.run(op);
+    /**
+     * Inverts with ImageIO when it handles the extension, falling back to ImageMagick when it
+     * fails on the file itself, e.g. a CMYK JPEG. The upload is kept in pooled buffers while
+     * ImageIO reads it, so the fallback still gets it from the first byte.
+     */
+    private void invert(InputStream source, File outputFile, String fileExtension) throws IOException {
+        if (!primaryInverter.supports(fileExtension)) {
+            fallbackInverter.invert(source, outputFile);
+            return;
+        }
+        try (PooledCacheImageInputStream input = primaryInverter.openReplayable(source)) {
+            try {
+                primaryInverter.invert(input, outputFile);
+                return;
+            } catch (IOException e) {
+                logger.warn("In-process inversion failed for {}, falling back to ImageMagick: {}",
+                        outputFile.getName(), e.getMessage());
+            }
+            fallbackInverter.invert(input.replay(), outputFile);
+        }
+    }
 
-        logger.debug("ImageMagick processing completed for: {}", outputFile.getName());
+    private void invert(Path source, File outputFile, String fileExtension) throws IOException {
+        if (primaryInverter.supports(fileExtension)) {
+            try {
+                primaryInverter.invert(source, outputFile);
+                return;
+            } catch (IOException e) {
+                logger.warn("In-process inversion failed for {}, falling back to ImageMagick: {}",
+                        outputFile.getName(), e.getMessage());
+            }
+        }
+        fallbackInverter.invert(source, outputFile);
     }
 
-    private String getFileExtension(String fileName) {
+    /**
+     * Lower-cased extension of an uploaded file name, {@code jpg} if it has none.
+     */
+    public static String getFileExtension(String fileName) {
         int lastDotIndex = fileName.lastIndexOf('.');
         if (lastDotIndex > 0 && lastDotIndex < fileName.length() - 1) {
             return fileName.substring(lastDotIndex + 1).toLowerCase();
@@ -136,18 +329,20 @@ public class ImageProcessingService {
         return "jpg"; // default extension
     }
 
-    public CompletionStage<File> getImageFile(UUID imageId) {
-        return CompletableFuture.supplyAsync(() -> {
-            return repository.findById(imageId)
-                    .map(image -> {
-                        File file = new File(image.getFilePath());
-                        if (!file.exists()) {
-                            logger.error("Image file not found for ID: {}", imageId);
-                            throw new RuntimeException("Image file not found");
-                        }
-                        return file;
-                    })
-                    .orElseThrow(() -> new RuntimeException("Image not found with ID: " + imageId));
-        }, actorSystem.dispatcher());
+    /**
+     * Looks up a processed image, failing if its row or its file on disk is missing.
+     */
+    public CompletionStage<JpaProcessedImage> getImage(UUID imageId) {
+        return repository.findById(imageId)
+                .thenApply(found -> found
+                        .map(image -> {
+                            File file = new File(image.getFilePath());
+                            if (!file.exists()) {
+                                logger.error("Image file not found for ID: {}", imageId);
+                                throw new RuntimeException("Image file not found");
+                            }
+                            return image;
+                        })
+                        .orElseThrow(() -> new RuntimeException("Image not found with ID: " + imageId)));
     }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package com.encentral.image_inverter.impl;
+
+import org.im4java.core.ConvertCmd;
+import org.im4java.core.IM4JavaException;
+import org.im4java.core.IMOperation;
+import play.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Scales processed images down to a given width, keeping the aspect ratio. Images already
+ * that narrow are copied as they are, never scaled up. Formats {@link ImageIOInverter} can't
+ * round-trip are left to ImageMagick, as for inversion.
+ */
+@Singleton
+public class ImageResizer {
+
+    private static final Logger.ALogger logger = Logger.of(ImageResizer.class);
+
+    private final ImageIOInverter imageIOInverter;
+
+    @Inject
+    public ImageResizer(ImageIOInverter imageIOInverter) {
+        this.imageIOInverter = imageIOInverter;
+    }
+
+    public void resize(Path source, Path target, int width) throws IOException {
+        String fileName = target.getFileName().toString();
+        String fileExtension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        if (imageIOInverter.supports(fileExtension)) {
+            resizeWithImageIO(source, target, width);
+        } else {
+            resizeWithImageMagick(source, target, width);
+        }
+    }
+
+    private void resizeWithImageIO(Path source, Path target, int width) throws IOException {
+        try (ImageInputStream input = imageIOInverter.open(source)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("No ImageIO reader for: " + source.getFileName());
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                String formatName = reader.getFormatName().toLowerCase(Locale.ROOT);
+
+                int sourceWidth = reader.getWidth(0);
+                if (sourceWidth <= width) {
+                    Files.copy(source, target);
+                    return;
+                }
+
+                // Only decode every n-th pixel of an image many times the target size; it is
+                // still at least twice as wide as needed, so scaling smooths out the aliasing
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = sourceWidth / (width * 2);
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+
+                BufferedImage scaled = scale(reader.read(0, param), width);
+                if (!ImageIO.write(scaled, formatName, target.toFile())) {
+                    throw new IOException("No ImageIO writer for format: " + formatName);
+                }
+                logger.debug("ImageIO resize completed for: {} ({}px)", target.getFileName(), width);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Halves the image with bilinear filtering until one more step reaches {@code width};
+     * a single bilinear pass over a much larger image would skip most of its pixels.
+     */
+    static BufferedImage scale(BufferedImage image, int width) {
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        int height = Math.max(1, (int) Math.round((double) image.getHeight() * width / image.getWidth()));
+
+        BufferedImage current = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+
+            BufferedImage next = new BufferedImage(currentWidth, currentHeight, type);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (currentWidth > width || currentHeight > height);
+        return current;
+    }
+
+    private void resizeWithImageMagick(Path source, Path target, int width) throws IOException {
+        IMOperation op = new IMOperation();
+        op.addImage(source.toAbsolutePath().toString());
+        op.thumbnail(width, null, '>'); // '>' only ever shrinks
+        op.addImage(target.toAbsolutePath().toString());
+
+        try {
+            new ConvertCmd().run(op);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("ImageMagick was interrupted", e);
+        } catch (IM4JavaException e) {
+            throw new IOException("ImageMagick failed: " + e.getMessage(), e);
+        }
+        logger.debug("ImageMagick resize completed for: {} ({}px)", target.getFileName(), width);
+    }
+}
@@ -0,0 +1,214 @@
+package com.encentral.image_inverter.impl;
+
+import akka.actor.ActorSystem;
+import com.encentral.entities.JpaImageVariant;
+import com.encentral.entities.JpaProcessedImage;
+import com.typesafe.config.Config;
+import play.Logger;
+import scala.concurrent.ExecutionContextExecutor;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static akka.dispatch.Futures.future;
+import static scala.compat.java8.FutureConverters.toJava;
+
+/**
+ * Resized copies of processed images, generated on first request and kept on disk next to
+ * the original. The variants on disk are an LRU: once their total size passes
+ * {@code image.variants.max-total-size}, the least recently served are deleted, row and
+ * file, and generated again if asked for.
+ */
+@Singleton
+public class ImageVariantCache {
+
+    private static final Logger.ALogger logger = Logger.of(ImageVariantCache.class);
+    private static final String PROCESSING_DISPATCHER = "image.processing.dispatcher";
+
+    private final ImageVariantRepository repository;
+    private final ImageResizer resizer;
+    private final ExecutionContextExecutor processingDispatcher;
+    private final Set<Integer> widths;
+    private final long maxTotalBytes;
+
+    // Access-ordered, so iteration starts at the least recently served variant
+    private final LinkedHashMap<String, JpaImageVariant> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    // Generations in progress, so concurrent requests for one variant share a single resize
+    private final Map<String, CompletableFuture<JpaImageVariant>> inFlight = new ConcurrentHashMap<>();
+
+    @Inject
+    public ImageVariantCache(ActorSystem actorSystem, Config config, ImageVariantRepository repository,
+                             ImageResizer resizer) {
+        this.repository = repository;
+        this.resizer = resizer;
+        this.processingDispatcher = actorSystem.dispatchers().lookup(PROCESSING_DISPATCHER);
+        this.widths = new TreeSet<>(config.getIntList("image.variants.widths"));
+        this.maxTotalBytes = config.getBytes("image.variants.max-total-size");
+
+        // Count variants generated before a restart against the budget, oldest first
+        repository.findAll()
+                .thenAccept(variants -> variants.forEach(this::add))
+                .exceptionally(error -> {
+                    logger.warn("Failed to load existing image variants", error);
+                    return null;
+                });
+    }
+
+    public Set<Integer> getWidths() {
+        return widths;
+    }
+
+    public boolean isAllowedWidth(int width) {
+        return widths.contains(width);
+    }
+
+    /**
+     * The variant of {@code image} at {@code width}, generating it if it doesn't exist yet.
+     */
+    public CompletionStage<JpaImageVariant> getVariant(JpaProcessedImage image, int width) {
+        String key = key(image.getId(), width);
+        JpaImageVariant cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if (cached != null && new File(cached.getFilePath()).exists()) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<JpaImageVariant> created = new CompletableFuture<>();
+        CompletableFuture<JpaImageVariant> pending = inFlight.putIfAbsent(key, created);
+        if (pending != null) {
+            return pending;
+        }
+        findOrGenerate(image, width).whenComplete((variant, error) -> {
+            inFlight.remove(key, created);
+            if (error == null) {
+                created.complete(variant);
+            } else {
+                created.completeExceptionally(error);
+            }
+        });
+        return created;
+    }
+
+    private CompletionStage<JpaImageVariant> findOrGenerate(JpaProcessedImage image, int width) {
+        return repository.find(image.getId(), width).thenCompose(found -> {
+            if (found.isPresent() && new File(found.get().getFilePath()).exists()) {
+                add(found.get());
+                return CompletableFuture.completedFuture(found.get());
+            }
+            // A row whose file is gone is replaced
+            CompletionStage<Void> stale = found.isPresent()
+                    ? repository.deleteById(found.get().getId())
+                    : CompletableFuture.completedFuture(null);
+            return stale
+                    .thenCompose(ignored -> toJava(future(() -> generate(image, width), processingDispatcher)))
+                    .thenCompose(path -> save(image, width, path));
+        });
+    }
+
+    private Path generate(JpaProcessedImage image, int width) {
+        Path original = Paths.get(image.getFilePath());
+        Path target = variantPath(original, width);
+        // Keep the extension last, the resizer picks the output format from it
+        Path partial = variantPath(original, width, ProcessedImageStore.PARTIAL_MARKER + UUID.randomUUID());
+        try {
+            resizer.resize(original, partial, width);
+            try {
+                Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return target;
+        } catch (Exception e) {
+            logger.error("Failed to resize image {} to {}px", image.getId(), width, e);
+            partial.toFile().delete();
+            throw new RuntimeException("Image resizing failed: " + e.getMessage(), e);
+        }
+    }
+
+    private CompletionStage<JpaImageVariant> save(JpaProcessedImage image, int width, Path path) {
+        JpaImageVariant variant = JpaImageVariant.builder()
+                .imageId(image.getId())
+                .width(width)
+                .filePath(path.toString())
+                .fileSize(path.toFile().length())
+                .build();
+        return repository.save(variant).whenComplete((saved, error) -> {
+            if (error != null) {
+                logger.error("Failed to save image variant", error);
+                path.toFile().delete();
+                return;
+            }
+            add(saved);
+        });
+    }
+
+    private void add(JpaImageVariant variant) {
+        List<JpaImageVariant> evicted = new ArrayList<>();
+        synchronized (entries) {
+            JpaImageVariant previous = entries.put(key(variant.getImageId(), variant.getWidth()), variant);
+            if (previous != null) {
+                totalBytes -= previous.getFileSize();
+            }
+            totalBytes += variant.getFileSize();
+
+            Iterator<JpaImageVariant> eldest = entries.values().iterator();
+            while (totalBytes > maxTotalBytes && eldest.hasNext()) {
+                JpaImageVariant victim = eldest.next();
+                if (victim == variant) {
+                    break; // never evict the variant being served
+                }
+                eldest.remove();
+                totalBytes -= victim.getFileSize();
+                evicted.add(victim);
+            }
+        }
+        evicted.forEach(this::delete);
+    }
+
+    private void delete(JpaImageVariant variant) {
+        repository.deleteById(variant.getId()).whenComplete((ignored, error) -> {
+            if (error != null) {
+                logger.warn("Failed to delete evicted image variant {}", variant.getId(), error);
+                return;
+            }
+            new File(variant.getFilePath()).delete();
+        });
+    }
+
+    private static Path variantPath(Path original, int width) {
+        return variantPath(original, width, "");
+    }
+
+    // uploads/processed/ab/cd/abcd....png at 256px is uploads/processed/ab/cd/abcd....w256.png
+    private static Path variantPath(Path original, int width, String suffix) {
+        String fileName = original.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return original.resolveSibling(
+                fileName.substring(0, dot) + ".w" + width + suffix + fileName.substring(dot));
+    }
+
+    private static String key(UUID imageId, int width) {
+        return imageId + ":" + width;
+    }
+}
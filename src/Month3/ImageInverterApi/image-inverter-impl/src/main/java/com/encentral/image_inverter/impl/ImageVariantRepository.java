@@ -0,0 +1,94 @@
+package com.encentral.image_inverter.impl;
+
+import com.encentral.entities.JpaImageVariant;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import play.db.jpa.JPAApi;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static com.encentral.entities.QJpaImageVariant.jpaImageVariant;
+
+/**
+ * Rows of {@link JpaImageVariant}, with the same one-EntityManager-per-call approach as
+ * {@link ProcessedImageRepository}.
+ */
+@Singleton
+public class ImageVariantRepository {
+
+    private static final String PERSISTENCE_UNIT = "default";
+
+    private final JPAApi jpaApi;
+    private final DatabaseExecutionContext executionContext;
+
+    @Inject
+    public ImageVariantRepository(JPAApi jpaApi, DatabaseExecutionContext executionContext) {
+        this.jpaApi = jpaApi;
+        this.executionContext = executionContext;
+    }
+
+    public CompletionStage<JpaImageVariant> save(JpaImageVariant variant) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return jpaApi.withTransaction(em -> {
+                    em.persist(variant);
+                    return variant;
+                });
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to save image variant", e);
+            }
+        }, executionContext);
+    }
+
+    public CompletionStage<Optional<JpaImageVariant>> find(UUID imageId, int width) {
+        return CompletableFuture.supplyAsync(() -> Optional.ofNullable(readOnly(queryFactory -> queryFactory
+                .selectFrom(jpaImageVariant)
+                .where(jpaImageVariant.imageId.eq(imageId), jpaImageVariant.width.eq(width))
+                .fetchFirst())), executionContext);
+    }
+
+    /**
+     * Every variant, oldest first.
+     */
+    public CompletionStage<List<JpaImageVariant>> findAll() {
+        return CompletableFuture.supplyAsync(() -> readOnly(queryFactory -> queryFactory
+                .selectFrom(jpaImageVariant)
+                .orderBy(jpaImageVariant.createdAt.asc())
+                .fetch()), executionContext);
+    }
+
+    /**
+     * Which of {@code filePaths} some variant row points at.
+     */
+    public CompletionStage<List<String>> findExistingFilePaths(Collection<String> filePaths) {
+        return CompletableFuture.supplyAsync(() -> readOnly(queryFactory -> queryFactory
+                .select(jpaImageVariant.filePath)
+                .from(jpaImageVariant)
+                .where(jpaImageVariant.filePath.in(filePaths))
+                .fetch()), executionContext);
+    }
+
+    public CompletionStage<Void> deleteById(UUID id) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                jpaApi.withTransaction(em -> new JPAQueryFactory(em)
+                        .delete(jpaImageVariant)
+                        .where(jpaImageVariant.id.eq(id))
+                        .execute());
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to delete image variant", e);
+            }
+        }, executionContext);
+    }
+
+    private <T> T readOnly(Function<JPAQueryFactory, T> query) {
+        return jpaApi.withTransaction(PERSISTENCE_UNIT, true, em -> query.apply(new JPAQueryFactory(em)));
+    }
+}
@@ -0,0 +1,60 @@
+package com.encentral.image_inverter.impl;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file through a read-only {@link FileChannel#map memory mapping}, so decoding pages
+ * the file in from the OS cache instead of copying it through heap buffers. The mapping is
+ * released when the buffer is garbage collected; closing the stream only stops reads.
+ */
+public class MappedImageInputStream extends ImageInputStreamImpl {
+
+    private final ByteBuffer mapped;
+
+    public MappedImageInputStream(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= mapped.limit()) {
+            return -1;
+        }
+        return mapped.get((int) streamPos++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        bitOffset = 0;
+        if (streamPos >= mapped.limit()) {
+            return -1;
+        }
+        ByteBuffer source = mapped.duplicate();
+        source.position((int) streamPos);
+        int count = Math.min(len, source.remaining());
+        source.get(b, off, count);
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return mapped.limit();
+    }
+}
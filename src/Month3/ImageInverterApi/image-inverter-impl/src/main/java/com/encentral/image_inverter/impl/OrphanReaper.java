@@ -0,0 +1,225 @@
+package com.encentral.image_inverter.impl;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import com.encentral.entities.JpaProcessedImage;
+import com.typesafe.config.Config;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.ExecutionContextExecutor;
+import scala.concurrent.duration.FiniteDuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Periodically reconciles uploads/processed with the database: deletes files no row points
+ * at (left by a crash between writing an image and saving its row, or by a deleted image's
+ * variants), rows whose file is gone, and stale spool files.
+ * <p>
+ * Both sides are read in pages of {@code image.reaper.page-size}, files by walking the
+ * directory tree lazily and rows by file path, so memory stays bounded however many images
+ * there are. Files younger than {@code image.reaper.min-age} are left alone, as their upload
+ * may still be in progress.
+ */
+@Singleton
+public class OrphanReaper {
+
+    private static final Logger.ALogger logger = Logger.of(OrphanReaper.class);
+    private static final String PROCESSING_DISPATCHER = "image.processing.dispatcher";
+
+    private final ProcessedImageRepository imageRepository;
+    private final ImageVariantRepository variantRepository;
+    private final ProcessedImageStore store;
+    private final ImageMetrics metrics;
+    private final int pageSize;
+    private final Duration minAge;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Inject
+    public OrphanReaper(ActorSystem actorSystem, Config config, ApplicationLifecycle lifecycle,
+                        ProcessedImageRepository imageRepository, ImageVariantRepository variantRepository,
+                        ProcessedImageStore store, ImageMetrics metrics) {
+        this.imageRepository = imageRepository;
+        this.variantRepository = variantRepository;
+        this.store = store;
+        this.metrics = metrics;
+        this.pageSize = config.getInt("image.reaper.page-size");
+        this.minAge = config.getDuration("image.reaper.min-age");
+
+        if (!config.getBoolean("image.reaper.enabled")) {
+            return;
+        }
+        // File walking blocks, so keep it off the default dispatcher
+        ExecutionContextExecutor dispatcher = actorSystem.dispatchers().lookup(PROCESSING_DISPATCHER);
+        Cancellable schedule = actorSystem.scheduler().schedule(
+                finite(config.getDuration("image.reaper.initial-delay")),
+                finite(config.getDuration("image.reaper.interval")),
+                this::reap,
+                dispatcher);
+        lifecycle.addStopHook(() -> {
+            schedule.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Runs one reconciliation pass, unless one is already running.
+     *
+     * @return bytes of disk space freed
+     */
+    public long reap() {
+        if (!running.compareAndSet(false, true)) {
+            logger.info("Orphan reaper already running, skipping this run");
+            return 0;
+        }
+        try {
+            Instant cutoff = Instant.now().minus(minAge);
+            long reclaimed = reapOrphanFiles(cutoff) + reapSpool(cutoff);
+            long rows = reapDanglingRows();
+            logger.info("Orphan reaper reclaimed {} bytes and deleted {} dangling rows", reclaimed, rows);
+            return reclaimed;
+        } catch (Exception e) {
+            logger.error("Orphan reaper failed", e);
+            return 0;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private long reapOrphanFiles(Instant cutoff) throws IOException {
+        long reclaimed = 0;
+        try (Stream<Path> files = Files.walk(store.getImageDirectory())) {
+            Iterator<Path> iterator = files.iterator();
+            List<Path> page = new ArrayList<>(pageSize);
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                if (isOldFile(file, cutoff)) {
+                    page.add(file);
+                }
+                if (page.size() == pageSize || !iterator.hasNext()) {
+                    reclaimed += reapOrphanPage(page);
+                    page.clear();
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return reclaimed;
+    }
+
+    private long reapOrphanPage(List<Path> page) {
+        if (page.isEmpty()) {
+            return 0;
+        }
+        List<String> filePaths = new ArrayList<>(page.size());
+        page.forEach(file -> filePaths.add(file.toString()));
+
+        Set<String> referenced = new HashSet<>(imageRepository.findExistingFilePaths(filePaths)
+                .toCompletableFuture().join());
+        referenced.addAll(variantRepository.findExistingFilePaths(filePaths)
+                .toCompletableFuture().join());
+
+        long count = 0;
+        long reclaimed = 0;
+        for (Path file : page) {
+            // Half-written files never get a row, so an old one was abandoned
+            if (referenced.contains(file.toString()) && !ProcessedImageStore.isPartial(file)) {
+                continue;
+            }
+            long size = delete(file);
+            if (size >= 0) {
+                count++;
+                reclaimed += size;
+            }
+        }
+        metrics.reaped("file", count, reclaimed);
+        return reclaimed;
+    }
+
+    private long reapSpool(Instant cutoff) throws IOException {
+        long count = 0;
+        long reclaimed = 0;
+        try (Stream<Path> files = Files.list(store.getSpoolDirectory())) {
+            Iterator<Path> iterator = files.iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                if (isOldFile(file, cutoff)) {
+                    long size = delete(file);
+                    if (size >= 0) {
+                        count++;
+                        reclaimed += size;
+                    }
+                }
+            }
+        }
+        metrics.reaped("spool", count, reclaimed);
+        return reclaimed;
+    }
+
+    private long reapDanglingRows() {
+        long deleted = 0;
+        String after = null;
+        List<JpaProcessedImage> page;
+        do {
+            page = imageRepository.findPageAfter(after, pageSize).toCompletableFuture().join();
+            List<UUID> dangling = new ArrayList<>();
+            for (JpaProcessedImage image : page) {
+                if (!Files.exists(Path.of(image.getFilePath()))) {
+                    dangling.add(image.getId());
+                }
+            }
+            if (!dangling.isEmpty()) {
+                deleted += imageRepository.deleteAllById(dangling).toCompletableFuture().join();
+            }
+            if (!page.isEmpty()) {
+                after = page.get(page.size() - 1).getFilePath();
+            }
+        } while (page.size() == pageSize);
+        metrics.reaped("row", deleted, 0);
+        return deleted;
+    }
+
+    private static boolean isOldFile(Path file, Instant cutoff) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.isRegularFile() && attributes.lastModifiedTime().toInstant().isBefore(cutoff);
+        } catch (IOException e) {
+            return false; // deleted since it was listed
+        }
+    }
+
+    /**
+     * @return the size of the deleted file, or -1 if it could not be deleted
+     */
+    private static long delete(Path file) {
+        try {
+            long size = Files.size(file);
+            return Files.deleteIfExists(file) ? size : -1;
+        } catch (IOException e) {
+            logger.warn("Failed to delete {}", file, e);
+            return -1;
+        }
+    }
+
+    private static FiniteDuration finite(Duration duration) {
+        return FiniteDuration.create(duration.toMillis(), TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,97 @@
+package com.encentral.image_inverter.impl;
+
+import com.typesafe.config.Config;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Negates large images in row bands on a dedicated {@link ForkJoinPool}, so a single big
+ * upload is spread over the cores instead of pinning one dispatcher thread. Images below
+ * the configured pixel threshold are negated on the calling thread.
+ */
+@Singleton
+public class ParallelRasterNegator {
+
+    private static final Logger.ALogger logger = Logger.of(ParallelRasterNegator.class);
+    private static final int MIN_BAND_ROWS = 64;
+
+    private final long parallelThresholdPixels;
+    private final ForkJoinPool pool;
+
+    @Inject
+    public ParallelRasterNegator(Config config, ApplicationLifecycle lifecycle) {
+        this(config.getLong("image.inversion.parallel-threshold-pixels"),
+                resolveParallelism(config.getInt("image.inversion.parallelism")));
+        lifecycle.addStopHook(() -> {
+            close();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public ParallelRasterNegator(long parallelThresholdPixels, int parallelism) {
+        this.parallelThresholdPixels = parallelThresholdPixels;
+        this.pool = new ForkJoinPool(parallelism);
+        logger.info("Banded inversion enabled from {} pixels on {} threads", parallelThresholdPixels, parallelism);
+    }
+
+    private static int resolveParallelism(int configured) {
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Negates an image returned by {@link RasterNegator#toNegatable} in place.
+     */
+    public void negate(BufferedImage image) {
+        if ((long) image.getWidth() * image.getHeight() < parallelThresholdPixels) {
+            negateSingleThreaded(image);
+        } else {
+            negateBanded(image);
+        }
+    }
+
+    public void negateSingleThreaded(BufferedImage image) {
+        RasterNegator.negateRows(image, 0, image.getHeight());
+    }
+
+    public void negateBanded(BufferedImage image) {
+        int bandRows = Math.max(MIN_BAND_ROWS, image.getHeight() / (pool.getParallelism() * 4));
+        pool.invoke(new BandTask(image, 0, image.getHeight(), bandRows));
+    }
+
+    public void close() {
+        pool.shutdown();
+    }
+
+    private static class BandTask extends RecursiveAction {
+
+        private final BufferedImage image;
+        private final int fromRow;
+        private final int toRow;
+        private final int bandRows;
+
+        BandTask(BufferedImage image, int fromRow, int toRow, int bandRows) {
+            this.image = image;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= bandRows) {
+                RasterNegator.negateRows(image, fromRow, toRow);
+                return;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            invokeAll(new BandTask(image, fromRow, middle, bandRows),
+                    new BandTask(image, middle, toRow, bandRows));
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.encentral.image_inverter.impl;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stand-in for ImageIO's {@code MemoryCacheImageInputStream} that caches what it has read of
+ * the stream in buffers from a {@link DirectBufferPool} rather than on the heap. Buffers
+ * start at the pool's smallest size and double up to its largest, so small uploads take
+ * little memory; those wholly before the flushed position are given back straight away,
+ * which keeps a reader in seek-forward-only mode to a small window of the upload.
+ * <p>
+ * Opened with {@code retainFlushed}, nothing is given back until it is closed, so the upload
+ * can be {@link #replay replayed} from its first byte to another decoder.
+ * <p>
+ * Like its ImageIO counterpart, closing it leaves the underlying stream open.
+ */
+public class PooledCacheImageInputStream extends ImageInputStreamImpl {
+
+    private static final int FIRST_BUFFER_SIZE = 16 * 1024;
+
+    private final InputStream stream;
+    private final DirectBufferPool pool;
+    private final boolean retainFlushed;
+    private final byte[] transfer = new byte[8192];
+
+    // Buffers in stream order; released ones are set to null
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private final List<Long> bufferStarts = new ArrayList<>();
+    private int nextBufferSize = FIRST_BUFFER_SIZE;
+    private long cachedLength;
+    private boolean endOfStream;
+
+    public PooledCacheImageInputStream(InputStream stream, DirectBufferPool pool) {
+        this(stream, pool, false);
+    }
+
+    public PooledCacheImageInputStream(InputStream stream, DirectBufferPool pool, boolean retainFlushed) {
+        this.stream = stream;
+        this.pool = pool;
+        this.retainFlushed = retainFlushed;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (!cacheUpTo(streamPos + 1)) {
+            return -1;
+        }
+        int index = bufferIndex(streamPos);
+        int value = buffers.get(index).get((int) (streamPos - bufferStarts.get(index))) & 0xff;
+        streamPos++;
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        bitOffset = 0;
+        cacheUpTo(streamPos + len);
+        int available = (int) Math.min(len, cachedLength - streamPos);
+        if (available <= 0) {
+            return -1;
+        }
+
+        int copied = 0;
+        int index = bufferIndex(streamPos);
+        while (copied < available) {
+            ByteBuffer source = buffers.get(index).duplicate();
+            source.position((int) (streamPos - bufferStarts.get(index)));
+            int count = Math.min(available - copied, source.remaining());
+            source.get(b, off + copied, count);
+            copied += count;
+            streamPos += count;
+            index++;
+        }
+        return copied;
+    }
+
+    @Override
+    public void flushBefore(long pos) throws IOException {
+        super.flushBefore(pos);
+        if (retainFlushed) {
+            return;
+        }
+        for (int i = 0; i < buffers.size(); i++) {
+            ByteBuffer buffer = buffers.get(i);
+            if (bufferStarts.get(i) + (buffer == null ? 0 : buffer.capacity()) > pos) {
+                break;
+            }
+            if (buffer != null) {
+                pool.release(buffer);
+                buffers.set(i, null);
+            }
+        }
+    }
+
+    /**
+     * The upload from its first byte: what has been cached so far, then whatever the
+     * underlying stream has left. Valid until this stream is closed.
+     */
+    public InputStream replay() throws IOException {
+        checkClosed();
+        if (!retainFlushed) {
+            throw new IllegalStateException("Flushed buffers were not retained");
+        }
+        List<InputStream> parts = new ArrayList<>(buffers.size() + 1);
+        for (ByteBuffer buffer : buffers) {
+            ByteBuffer cached = buffer.duplicate();
+            cached.flip();
+            parts.add(new ByteBufferInputStream(cached));
+        }
+        parts.add(stream);
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    @Override
+    public boolean isCached() {
+        return true;
+    }
+
+    @Override
+    public boolean isCachedMemory() {
+        return true;
+    }
+
+    @Override
+    public boolean isCachedFile() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        for (ByteBuffer buffer : buffers) {
+            if (buffer != null) {
+                pool.release(buffer);
+            }
+        }
+        buffers.clear();
+        bufferStarts.clear();
+    }
+
+    /**
+     * Reads from the stream until {@code length} bytes are cached or it ends.
+     *
+     * @return whether that many bytes are cached
+     */
+    private boolean cacheUpTo(long length) throws IOException {
+        while (cachedLength < length && !endOfStream) {
+            int last = buffers.size() - 1;
+            ByteBuffer buffer = last < 0 ? null : buffers.get(last);
+            if (buffer == null || !buffer.hasRemaining()) {
+                buffer = pool.acquire(nextBufferSize);
+                nextBufferSize = Math.min(nextBufferSize * 2, pool.getMaxBufferSize());
+                buffers.add(buffer);
+                bufferStarts.add(cachedLength);
+            }
+            int count = stream.read(transfer, 0, Math.min(transfer.length, buffer.remaining()));
+            if (count < 0) {
+                endOfStream = true;
+            } else {
+                buffer.put(transfer, 0, count);
+                cachedLength += count;
+            }
+        }
+        return cachedLength >= length;
+    }
+
+    private int bufferIndex(long pos) {
+        int index = buffers.size() - 1;
+        while (bufferStarts.get(index) > pos) {
+            index--;
+        }
+        return index;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
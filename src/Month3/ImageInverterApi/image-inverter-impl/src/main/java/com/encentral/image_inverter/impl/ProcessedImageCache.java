@@ -0,0 +1,109 @@
+package com.encentral.image_inverter.impl;
+
+import com.encentral.entities.JpaProcessedImage;
+import com.typesafe.config.Config;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size- and TTL-bounded LRU of {@link JpaProcessedImage} rows by id. Rows are never
+ * updated once written, so the only staleness to guard against is deletion, which
+ * {@link ProcessedImageRepository} invalidates explicitly.
+ */
+@Singleton
+public class ProcessedImageCache {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<UUID, CachedImage> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Inject
+    public ProcessedImageCache(Config config, ImageMetrics metrics) {
+        this(config.getInt("image.metadata-cache.max-entries"),
+                config.getDuration("image.metadata-cache.ttl").toNanos(), metrics);
+    }
+
+    public ProcessedImageCache(int maxEntries, long ttlNanos, ImageMetrics metrics) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlNanos;
+        this.entries = new LinkedHashMap<UUID, CachedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, CachedImage> eldest) {
+                if (size() > ProcessedImageCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        metrics.registerCounter("image_metadata_cache_hits_total",
+                "Image lookups answered from the metadata cache.", hits::sum);
+        metrics.registerCounter("image_metadata_cache_misses_total",
+                "Image lookups the metadata cache could not answer.", misses::sum);
+        // Explicit invalidations are not counted
+        metrics.registerCounter("image_metadata_cache_evictions_total",
+                "Metadata cache entries dropped for exceeding the size bound or the TTL.", evictions::sum);
+        metrics.registerGauge("image_metadata_cache_entries",
+                "Images held in the metadata cache.", this::size);
+    }
+
+    public Optional<JpaProcessedImage> get(UUID id) {
+        synchronized (entries) {
+            CachedImage entry = entries.get(id);
+            if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+                hits.increment();
+                return Optional.of(entry.image);
+            }
+            if (entry != null) {
+                entries.remove(id);
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    public void put(JpaProcessedImage image) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        CachedImage entry = new CachedImage(image, System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            entries.put(image.getId(), entry);
+        }
+    }
+
+    public void invalidate(UUID id) {
+        synchronized (entries) {
+            entries.remove(id);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static class CachedImage {
+
+        private final JpaProcessedImage image;
+        private final long expiresAt;
+
+        CachedImage(JpaProcessedImage image, long expiresAt) {
+            this.image = image;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,74 +1,209 @@
 package com.encentral.image_inverter.impl;
 
 import com.encentral.entities.JpaProcessedImage;
+import com.querydsl.core.Tuple;
 import com.querydsl.jpa.impl.JPAQueryFactory;
+import io.prometheus.client.Histogram;
+import play.db.jpa.JPAApi;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import javax.persistence.EntityManager;
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 
 import static com.encentral.entities.QJpaProcessedImage.jpaProcessedImage;
 
+/**
+ * Every call gets its own EntityManager and transaction from {@link JPAApi} and runs on the
+ * {@link DatabaseExecutionContext}, so concurrent uploads never share a persistence context.
+ */
 @Singleton
 public class ProcessedImageRepository {
 
-    private final JPAQueryFactory queryFactory;
-    private final EntityManager entityManager;
+    private static final String PERSISTENCE_UNIT = "default";
+
+    private final JPAApi jpaApi;
+    private final DatabaseExecutionContext executionContext;
+    private final ProcessedImageCache cache;
+    private final ImageMetrics metrics;
 
     @Inject
-    public ProcessedImageRepository(JPAQueryFactory queryFactory, EntityManager entityManager) {
-        this.queryFactory = queryFactory;
-        this.entityManager = entityManager;
+    public ProcessedImageRepository(JPAApi jpaApi, DatabaseExecutionContext executionContext,
+                                    ProcessedImageCache cache, ImageMetrics metrics) {
+        this.jpaApi = jpaApi;
+        this.executionContext = executionContext;
+        this.cache = cache;
+        this.metrics = metrics;
     }
 
-    public JpaProcessedImage save(JpaProcessedImage image) {
-        entityManager.getTransaction().begin();
-        try {
-            entityManager.persist(image);
-            entityManager.getTransaction().commit();
+    public CompletionStage<JpaProcessedImage> save(JpaProcessedImage image) {
+        return CompletableFuture.supplyAsync(() -> {
+            Histogram.Timer timer = metrics.startStage(ImageMetrics.STAGE_PERSIST);
+            try {
+                jpaApi.withTransaction(em -> {
+                    em.persist(image);
+                    return image;
+                });
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to save processed image", e);
+            } finally {
+                timer.observeDuration();
+            }
+            cache.put(image);
             return image;
-        } catch (Exception e) {
-            entityManager.getTransaction().rollback();
-            throw new RuntimeException("Failed to save processed image", e);
-        }
+        }, executionContext);
     }
 
-    public Optional<JpaProcessedImage> findById(UUID id) {
-        JpaProcessedImage image = queryFactory
-                .selectFrom(jpaProcessedImage)
-                .where(jpaProcessedImage.id.eq(id))
-                .fetchOne();
-        return Optional.ofNullable(image);
+    /**
+     * Persists all rows in one transaction; with EclipseLink batch writing enabled in
+     * persistence.xml the inserts go to the database as a single JDBC batch.
+     */
+    public CompletionStage<List<JpaProcessedImage>> saveAll(List<JpaProcessedImage> images) {
+        return CompletableFuture.supplyAsync(() -> {
+            Histogram.Timer timer = metrics.startStage(ImageMetrics.STAGE_PERSIST);
+            try {
+                jpaApi.withTransaction(em -> {
+                    images.forEach(em::persist);
+                    return images;
+                });
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to save processed images", e);
+            } finally {
+                timer.observeDuration();
+            }
+            images.forEach(cache::put);
+            return images;
+        }, executionContext);
     }
 
-    public Optional<JpaProcessedImage> findByFilePath(String filePath) {
-        JpaProcessedImage image = queryFactory
+    public CompletionStage<Optional<JpaProcessedImage>> findById(UUID id) {
+        Optional<JpaProcessedImage> cached = cache.get(id);
+        if (cached.isPresent()) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            JpaProcessedImage image = readOnly(queryFactory -> queryFactory
+                    .selectFrom(jpaProcessedImage)
+                    .where(jpaProcessedImage.id.eq(id))
+                    .fetchOne());
+            if (image != null) {
+                cache.put(image);
+            }
+            return Optional.ofNullable(image);
+        }, executionContext);
+    }
+
+    public CompletionStage<Optional<JpaProcessedImage>> findByFilePath(String filePath) {
+        return CompletableFuture.supplyAsync(() -> Optional.ofNullable(readOnly(queryFactory -> queryFactory
                 .selectFrom(jpaProcessedImage)
                 .where(jpaProcessedImage.filePath.eq(filePath))
-                .fetchOne();
-        return Optional.ofNullable(image);
+                .fetchOne())), executionContext);
     }
 
-    public boolean existsById(UUID id) {
-        return queryFactory
+    public CompletionStage<Optional<JpaProcessedImage>> findByContentHash(String contentHash) {
+        return CompletableFuture.supplyAsync(() -> {
+            JpaProcessedImage image = readOnly(queryFactory -> queryFactory
+                    .selectFrom(jpaProcessedImage)
+                    .where(jpaProcessedImage.contentHash.eq(contentHash))
+                    .fetchFirst());
+            if (image != null) {
+                cache.put(image);
+            }
+            return Optional.ofNullable(image);
+        }, executionContext);
+    }
+
+    public CompletionStage<Boolean> existsById(UUID id) {
+        if (cache.get(id).isPresent()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return CompletableFuture.supplyAsync(() -> readOnly(queryFactory -> queryFactory
                 .selectFrom(jpaProcessedImage)
                 .where(jpaProcessedImage.id.eq(id))
-                .fetchFirst() != null;
+                .fetchFirst() != null), executionContext);
     }
 
-    public void deleteById(UUID id) {
-        entityManager.getTransaction().begin();
-        try {
-            queryFactory
-                    .delete(jpaProcessedImage)
-                    .where(jpaProcessedImage.id.eq(id))
-                    .execute();
-            entityManager.getTransaction().commit();
-        } catch (Exception e) {
-            entityManager.getTransaction().rollback();
-            throw new RuntimeException("Failed to delete processed image", e);
-        }
+    /**
+     * Deletes the row and then its file; a file left behind if the process dies in between
+     * is picked up by {@link OrphanReaper}. A content-addressed file is always left to the
+     * reaper: a concurrent upload of the same bytes may be about to save a row pointing at it.
+     */
+    public CompletionStage<Void> deleteById(UUID id) {
+        cache.invalidate(id);
+        return CompletableFuture.runAsync(() -> {
+            Tuple deleted;
+            try {
+                deleted = jpaApi.withTransaction(em -> {
+                    JPAQueryFactory queryFactory = new JPAQueryFactory(em);
+                    Tuple row = queryFactory
+                            .select(jpaProcessedImage.filePath, jpaProcessedImage.contentHash)
+                            .from(jpaProcessedImage)
+                            .where(jpaProcessedImage.id.eq(id))
+                            .fetchOne();
+                    queryFactory.delete(jpaProcessedImage)
+                            .where(jpaProcessedImage.id.eq(id))
+                            .execute();
+                    return row;
+                });
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to delete processed image", e);
+            } finally {
+                // Again after the delete, in case a concurrent findById re-cached the row meanwhile
+                cache.invalidate(id);
+            }
+            if (deleted != null && deleted.get(jpaProcessedImage.contentHash) == null) {
+                new File(deleted.get(jpaProcessedImage.filePath)).delete();
+            }
+        }, executionContext);
+    }
+
+    /**
+     * Up to {@code limit} rows ordered by file path, starting after {@code afterFilePath}
+     * ({@code null} for the first page).
+     */
+    public CompletionStage<List<JpaProcessedImage>> findPageAfter(String afterFilePath, int limit) {
+        return CompletableFuture.supplyAsync(() -> readOnly(queryFactory -> queryFactory
+                .selectFrom(jpaProcessedImage)
+                .where(afterFilePath == null ? null : jpaProcessedImage.filePath.gt(afterFilePath))
+                .orderBy(jpaProcessedImage.filePath.asc())
+                .limit(limit)
+                .fetch()), executionContext);
+    }
+
+    /**
+     * Which of {@code filePaths} some row points at.
+     */
+    public CompletionStage<List<String>> findExistingFilePaths(Collection<String> filePaths) {
+        return CompletableFuture.supplyAsync(() -> readOnly(queryFactory -> queryFactory
+                .select(jpaProcessedImage.filePath)
+                .from(jpaProcessedImage)
+                .where(jpaProcessedImage.filePath.in(filePaths))
+                .fetch()), executionContext);
+    }
+
+    public CompletionStage<Long> deleteAllById(Collection<UUID> ids) {
+        ids.forEach(cache::invalidate);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return jpaApi.withTransaction(em -> new JPAQueryFactory(em)
+                        .delete(jpaProcessedImage)
+                        .where(jpaProcessedImage.id.in(ids))
+                        .execute());
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to delete processed images", e);
+            } finally {
+                ids.forEach(cache::invalidate);
+            }
+        }, executionContext);
+    }
+
+    private <T> T readOnly(Function<JPAQueryFactory, T> query) {
+        return jpaApi.withTransaction(PERSISTENCE_UNIT, true, em -> query.apply(new JPAQueryFactory(em)));
     }
-}
\ No newline at end of file
+}
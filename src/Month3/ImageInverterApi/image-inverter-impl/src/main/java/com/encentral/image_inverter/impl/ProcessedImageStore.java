@@ -0,0 +1,170 @@
+package com.encentral.image_inverter.impl;
+
+import com.typesafe.config.Config;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Layout of processed images on disk. Files are spread over two levels of two-character
+ * shard directories, {@code uploads/processed/ab/cd/abcd...ext}, so no single directory
+ * grows without bound. In content-addressed mode the name is the SHA-256 of the upload,
+ * and identical uploads share one file.
+ */
+@Singleton
+public class ProcessedImageStore {
+
+    private static final String UPLOAD_DIR = "uploads/processed";
+    private static final String SPOOL_DIR = "uploads/spool";
+    public static final String PARTIAL_MARKER = ".partial-";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final boolean contentAddressed;
+
+    @Inject
+    public ProcessedImageStore(Config config) {
+        this(config.getBoolean("image.storage.content-addressed"));
+    }
+
+    public ProcessedImageStore(boolean contentAddressed) {
+        this.contentAddressed = contentAddressed;
+        try {
+            Files.createDirectories(Paths.get(UPLOAD_DIR));
+            Files.createDirectories(Paths.get(SPOOL_DIR));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to initialize upload directory", e);
+        }
+    }
+
+    public boolean isContentAddressed() {
+        return contentAddressed;
+    }
+
+    public Path getImageDirectory() {
+        return Paths.get(UPLOAD_DIR);
+    }
+
+    public Path getSpoolDirectory() {
+        return Paths.get(SPOOL_DIR);
+    }
+
+    /**
+     * Whether {@code file} is an image still being written; see {@link #publish}.
+     */
+    public static boolean isPartial(Path file) {
+        return file.getFileName().toString().contains(PARTIAL_MARKER);
+    }
+
+    /**
+     * A fresh, uniquely named path for an image that is not content-addressed.
+     */
+    public Path newImagePath(String fileExtension) throws IOException {
+        return shardedPath(UUID.randomUUID().toString(), fileExtension);
+    }
+
+    public Path contentPath(String contentHash, String fileExtension) throws IOException {
+        return shardedPath(contentHash, fileExtension);
+    }
+
+    /**
+     * An empty file in uploads/spool for an upload to be written to.
+     */
+    public Path newSpoolFile() throws IOException {
+        return Files.createTempFile(Paths.get(SPOOL_DIR), "upload-", ".tmp");
+    }
+
+    /**
+     * Copies an upload to a spool file, hashing it on the way through.
+     */
+    public SpooledUpload spool(InputStream source) throws IOException {
+        MessageDigest digest = sha256();
+        Path file = newSpoolFile();
+        try (DigestInputStream input = new DigestInputStream(source, digest);
+             OutputStream output = Files.newOutputStream(file)) {
+            input.transferTo(output);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return new SpooledUpload(file, toHex(digest.digest()));
+    }
+
+    /**
+     * Moves a fully written file to its content path, so readers never see a partial image.
+     * Another upload of the same bytes may have got there first; replacing its copy is
+     * harmless, as both hold the same image.
+     */
+    public void publish(Path written, Path target) throws IOException {
+        try {
+            Files.move(written, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(written, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Path shardedPath(String key, String fileExtension) throws IOException {
+        Path directory = Paths.get(UPLOAD_DIR, key.substring(0, 2), key.substring(2, 4));
+        Files.createDirectories(directory);
+        return directory.resolve(key + "." + fileExtension);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * An upload copied to local disk, with the SHA-256 of its bytes.
+     */
+    public static class SpooledUpload implements AutoCloseable {
+
+        private final Path file;
+        private final String contentHash;
+
+        SpooledUpload(Path file, String contentHash) {
+            this.file = file;
+            this.contentHash = contentHash;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        @Override
+        public void close() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // Left behind in uploads/spool, harmless
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.encentral.image_inverter.impl;
+
+import com.typesafe.config.Config;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Non-blocking semaphore bounding how many batch-uploaded images are processed at once.
+ * Waiters get a stage that completes when a permit frees up, so a caller can stop reading
+ * its request body instead of parking a thread.
+ */
+@Singleton
+public class ProcessingPermits {
+
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private int available;
+
+    @Inject
+    public ProcessingPermits(Config config) {
+        this(config.getInt("image.batch.concurrency"));
+    }
+
+    public ProcessingPermits(int permits) {
+        this.available = permits;
+    }
+
+    public CompletionStage<Void> acquire() {
+        synchronized (this) {
+            if (available > 0) {
+                available--;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    public void release() {
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            next = waiters.poll();
+            if (next == null) {
+                available++;
+                return;
+            }
+        }
+        // Hand the permit straight to the next waiter, outside the lock
+        next.complete(null);
+    }
+}
@@ -0,0 +1,159 @@
+package com.encentral.image_inverter.impl;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Negates the colour channels of decoded images directly in their backing arrays,
+ * leaving alpha untouched.
+ */
+public final class RasterNegator {
+
+    private RasterNegator() {
+    }
+
+    /**
+     * Returns {@code image} itself when its raster layout can be negated in place, otherwise
+     * a packed-int copy of it. Palette images should go through {@link #invertPalette} instead.
+     */
+    public static BufferedImage toNegatable(BufferedImage image) {
+        if (isPackedInt(image) || isInterleavedByte(image)) {
+            return image;
+        }
+        boolean hasAlpha = image.getColorModel().hasAlpha();
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(),
+                hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = copy.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return copy;
+    }
+
+    public static boolean isPalette(BufferedImage image) {
+        return image.getColorModel() instanceof IndexColorModel;
+    }
+
+    /**
+     * Inverts an indexed image by negating its colour table; the pixel indices are shared
+     * with the returned image, not copied.
+     */
+    public static BufferedImage invertPalette(BufferedImage image) {
+        IndexColorModel palette = (IndexColorModel) image.getColorModel();
+        int size = palette.getMapSize();
+        int[] argb = new int[size];
+        palette.getRGBs(argb);
+        for (int i = 0; i < size; i++) {
+            argb[i] ^= 0x00FFFFFF;
+        }
+        IndexColorModel inverted = new IndexColorModel(palette.getPixelSize(), size, argb, 0,
+                palette.hasAlpha(), palette.getTransparentPixel(), palette.getTransferType());
+        return new BufferedImage(inverted, image.getRaster(), false, null);
+    }
+
+    /**
+     * Negates rows {@code [fromRow, toRow)} of an image returned by {@link #toNegatable}.
+     * Disjoint row ranges touch disjoint parts of the array, so they may run concurrently.
+     */
+    public static void negateRows(BufferedImage image, int fromRow, int toRow) {
+        if (isPackedInt(image)) {
+            negatePackedIntRows(image, fromRow, toRow);
+        } else if (isInterleavedByte(image)) {
+            negateInterleavedByteRows(image, fromRow, toRow);
+        } else {
+            throw new IllegalArgumentException("Unsupported raster layout: " + image);
+        }
+    }
+
+    private static void negatePackedIntRows(BufferedImage image, int fromRow, int toRow) {
+        DirectColorModel colorModel = (DirectColorModel) image.getColorModel();
+        int mask = colorModel.getRedMask() | colorModel.getGreenMask() | colorModel.getBlueMask();
+
+        WritableRaster raster = image.getRaster();
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        int[] data = buffer.getData();
+        int scanlineStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        int width = raster.getWidth();
+
+        for (int y = fromRow; y < toRow; y++) {
+            int start = buffer.getOffset() + y * scanlineStride;
+            int end = start + width;
+            for (int i = start; i < end; i++) {
+                data[i] ^= mask;
+            }
+        }
+    }
+
+    private static void negateInterleavedByteRows(BufferedImage image, int fromRow, int toRow) {
+        WritableRaster raster = image.getRaster();
+        PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = buffer.getData();
+        int scanlineStride = sampleModel.getScanlineStride();
+        int pixelStride = sampleModel.getPixelStride();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        int width = raster.getWidth();
+
+        boolean hasAlpha = image.getColorModel().hasAlpha();
+        int alphaOffset = hasAlpha ? bandOffsets[bandOffsets.length - 1] : -1;
+
+        for (int y = fromRow; y < toRow; y++) {
+            int start = buffer.getOffset() + y * scanlineStride;
+            int end = start + width * pixelStride;
+            if (!hasAlpha && pixelStride == bandOffsets.length) {
+                for (int i = start; i < end; i++) {
+                    data[i] = (byte) ~data[i];
+                }
+                continue;
+            }
+            for (int pixel = start; pixel < end; pixel += pixelStride) {
+                for (int offset : bandOffsets) {
+                    if (offset != alphaOffset) {
+                        data[pixel + offset] = (byte) ~data[pixel + offset];
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isPackedInt(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        ColorModel colorModel = image.getColorModel();
+        return raster.getParent() == null
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && colorModel instanceof DirectColorModel
+                && !colorModel.isAlphaPremultiplied();
+    }
+
+    private static boolean isInterleavedByte(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        ColorModel colorModel = image.getColorModel();
+        SampleModel sampleModel = raster.getSampleModel();
+        if (raster.getParent() != null
+                || !(raster.getDataBuffer() instanceof DataBufferByte)
+                || !(sampleModel instanceof PixelInterleavedSampleModel)
+                || !(colorModel instanceof ComponentColorModel)
+                || colorModel.isAlphaPremultiplied()) {
+            return false;
+        }
+        for (int sampleSize : sampleModel.getSampleSize()) {
+            if (sampleSize != 8) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
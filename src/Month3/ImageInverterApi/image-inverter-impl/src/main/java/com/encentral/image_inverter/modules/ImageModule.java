@@ -1,14 +1,42 @@
 package com.encentral.image_inverter.modules;
 
+import com.encentral.image_inverter.impl.DatabaseExecutionContext;
+import com.encentral.image_inverter.impl.DirectBufferPool;
+import com.encentral.image_inverter.impl.ImageIOInverter;
+import com.encentral.image_inverter.impl.ImageJobQueue;
+import com.encentral.image_inverter.impl.ImageMagickInverter;
+import com.encentral.image_inverter.impl.ImageMetrics;
+import com.encentral.image_inverter.impl.ImageResizer;
+import com.encentral.image_inverter.impl.ImageVariantCache;
+import com.encentral.image_inverter.impl.ImageVariantRepository;
 import com.encentral.image_inverter.impl.ImageProcessingService;
+import com.encentral.image_inverter.impl.OrphanReaper;
+import com.encentral.image_inverter.impl.ParallelRasterNegator;
+import com.encentral.image_inverter.impl.ProcessedImageCache;
 import com.encentral.image_inverter.impl.ProcessedImageRepository;
+import com.encentral.image_inverter.impl.ProcessedImageStore;
+import com.encentral.image_inverter.impl.ProcessingPermits;
 import com.google.inject.AbstractModule;
 
 public class ImageModule extends AbstractModule {
 
     @Override
     protected void configure() {
+        bind(ImageMetrics.class).asEagerSingleton();
+        bind(DatabaseExecutionContext.class).asEagerSingleton();
+        bind(ProcessedImageCache.class).asEagerSingleton();
         bind(ProcessedImageRepository.class).asEagerSingleton();
+        bind(ProcessedImageStore.class).asEagerSingleton();
+        bind(ParallelRasterNegator.class).asEagerSingleton();
+        bind(DirectBufferPool.class).asEagerSingleton();
+        bind(ImageIOInverter.class).asEagerSingleton();
+        bind(ImageMagickInverter.class).asEagerSingleton();
         bind(ImageProcessingService.class).asEagerSingleton();
+        bind(ProcessingPermits.class).asEagerSingleton();
+        bind(ImageJobQueue.class).asEagerSingleton();
+        bind(ImageVariantRepository.class).asEagerSingleton();
+        bind(ImageResizer.class).asEagerSingleton();
+        bind(ImageVariantCache.class).asEagerSingleton();
+        bind(OrphanReaper.class).asEagerSingleton();
     }
 }
@@ -0,0 +1,113 @@
+package controllers;
+
+import com.encentral.image_inverter.impl.ImageJob;
+import com.encentral.image_inverter.impl.ImageJobQueue;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import parsers.SpoolingImageBodyParser;
+import play.libs.Json;
+import play.mvc.BodyParser;
+import play.mvc.Controller;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+
+public class ImageJobController extends Controller {
+
+    private final ImageJobQueue jobQueue;
+
+    @Inject
+    public ImageJobController(ImageJobQueue jobQueue) {
+        this.jobQueue = jobQueue;
+    }
+
+    // The upload is only spooled to disk here, processing happens on the job queue
+    @BodyParser.Of(SpoolingImageBodyParser.class)
+    public Result submitJob() {
+        Http.MultipartFormData<Path> body = request().body().asMultipartFormData();
+
+        if (body == null) {
+            return badRequest(createErrorResponse("No multipart data found"));
+        }
+
+        Http.MultipartFormData.FilePart<Path> filePart = body.getFile(SpoolingImageBodyParser.IMAGE_PART);
+        Path spooledUpload = filePart == null ? null : filePart.getFile();
+
+        // Only the first image part is queued, any other part the parser spooled is dropped
+        deleteSpooled(body, spooledUpload);
+
+        if (filePart == null) {
+            return badRequest(createErrorResponse("No file uploaded with key 'image'"));
+        }
+
+        // Validate content type, non-image parts are discarded by the parser
+        if (spooledUpload == null) {
+            return badRequest(createErrorResponse("File must be an image"));
+        }
+
+        Optional<ImageJob> job = jobQueue.submit(spooledUpload, filePart.getFilename());
+        if (!job.isPresent()) {
+            deleteQuietly(spooledUpload);
+            return SpoolingImageBodyParser.queueFull();
+        }
+
+        return status(ACCEPTED, createJobResponse(job.get()))
+                .withHeader(LOCATION, "/api/images/jobs/" + job.get().getId());
+    }
+
+    public Result getJob(String id) {
+        UUID jobId;
+        try {
+            jobId = UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return badRequest(createErrorResponse("Invalid UUID format: " + id));
+        }
+
+        return jobQueue.find(jobId)
+                .map(job -> ok(createJobResponse(job)))
+                .orElseGet(() -> notFound(createErrorResponse("Job not found: " + id)));
+    }
+
+    private static void deleteSpooled(Http.MultipartFormData<Path> body, Path keep) {
+        for (Http.MultipartFormData.FilePart<Path> part : body.getFiles()) {
+            if (part.getFile() != null && !part.getFile().equals(keep)) {
+                deleteQuietly(part.getFile());
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // Left behind in uploads/spool, harmless
+        }
+    }
+
+    private JsonNode createJobResponse(ImageJob job) {
+        ObjectNode response = Json.newObject();
+        response.put("jobId", job.getId().toString());
+        response.put("status", job.getStatus().name());
+        response.put("originalFileName", job.getOriginalFileName());
+        response.put("submittedAt", job.getSubmittedAt().toString());
+        if (job.getImageId() != null) {
+            response.put("imageId", job.getImageId().toString());
+        }
+        if (job.getError() != null) {
+            response.put("error", job.getError());
+        }
+        return response;
+    }
+
+    private JsonNode createErrorResponse(String message) {
+        ObjectNode error = Json.newObject();
+        error.put("error", message);
+        return error;
+    }
+}
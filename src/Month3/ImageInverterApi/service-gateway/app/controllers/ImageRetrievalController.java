@@ -1,30 +1,62 @@
 package controllers;
 
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.encentral.entities.JpaImageVariant;
+import com.encentral.entities.JpaProcessedImage;
 import com.encentral.image_inverter.impl.ImageProcessingService;
+import com.encentral.image_inverter.impl.ImageVariantCache;
+import play.http.HttpEntity;
 import play.mvc.Controller;
+import play.mvc.FileMimeTypes;
+import play.mvc.Http;
 import play.mvc.Result;
-import play.mvc.Results;
 
 import javax.inject.Inject;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 public class ImageRetrievalController extends Controller {
 
+    // Processed images are never rewritten, so clients may cache them indefinitely
+    private static final String CACHE_CONTROL_IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final int CHUNK_SIZE = 64 * 1024;
+
     private final ImageProcessingService imageProcessingService;
+    private final ImageVariantCache variantCache;
+    private final FileMimeTypes fileMimeTypes;
 
     @Inject
-    public ImageRetrievalController(ImageProcessingService imageProcessingService) {
+    public ImageRetrievalController(ImageProcessingService imageProcessingService, ImageVariantCache variantCache,
+                                    FileMimeTypes fileMimeTypes) {
         this.imageProcessingService = imageProcessingService;
+        this.variantCache = variantCache;
+        this.fileMimeTypes = fileMimeTypes;
     }
 
     public CompletionStage<Result> getImage(String id) {
         try {
             UUID imageId = UUID.fromString(id);
+            Http.Request request = request(); // read headers here, the callback runs off the request thread
+
+            String width = request.getQueryString("w");
+            if (width != null) {
+                return getVariant(request, imageId, width);
+            }
 
-            return imageProcessingService.getImageFile(imageId)
-                    .thenApply(Results::ok)
+            return imageProcessingService.getImage(imageId)
+                    .thenApply(image -> serveImage(request, image))
                     .exceptionally(throwable -> notFound("Image not found: " + throwable.getMessage()));
         } catch (IllegalArgumentException e) {
             return CompletableFuture.completedFuture(
@@ -33,4 +65,170 @@ public class ImageRetrievalController extends Controller {
         }
     }
 
-}
\ No newline at end of file
+    private CompletionStage<Result> getVariant(Http.Request request, UUID imageId, String width) {
+        int requestedWidth;
+        try {
+            requestedWidth = Integer.parseInt(width);
+        } catch (NumberFormatException e) {
+            requestedWidth = -1;
+        }
+        if (!variantCache.isAllowedWidth(requestedWidth)) {
+            return CompletableFuture.completedFuture(
+                    badRequest("Width must be one of " + variantCache.getWidths() + ": " + width)
+            );
+        }
+
+        int variantWidth = requestedWidth;
+        return imageProcessingService.getImage(imageId)
+                .thenCompose(image -> variantCache.getVariant(image, variantWidth))
+                .thenApply(variant -> serveVariant(request, variant))
+                .exceptionally(throwable -> notFound("Image not found: " + throwable.getMessage()));
+    }
+
+    private Result serveImage(Http.Request request, JpaProcessedImage image) {
+        String eTag = "\"" + image.getId() + "-" + image.getFileSize() + "\"";
+        return serveFile(request, Paths.get(image.getFilePath()), image.getFileSize(), eTag, image.getCreatedAt());
+    }
+
+    private Result serveVariant(Http.Request request, JpaImageVariant variant) {
+        String eTag = "\"" + variant.getImageId() + "-w" + variant.getWidth() + "-" + variant.getFileSize() + "\"";
+        return serveFile(request, Paths.get(variant.getFilePath()), variant.getFileSize(), eTag, variant.getCreatedAt());
+    }
+
+    private Result serveFile(Http.Request request, Path path, long fileSize, String eTag, LocalDateTime createdAt) {
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                createdAt.atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneOffset.UTC));
+
+        if (matchesETag(request.header(IF_NONE_MATCH), eTag)) {
+            return status(NOT_MODIFIED).withHeaders(
+                    ETAG, eTag,
+                    LAST_MODIFIED, lastModified,
+                    CACHE_CONTROL, CACHE_CONTROL_IMMUTABLE);
+        }
+
+        Optional<String> contentType = fileMimeTypes.forFileName(path.getFileName().toString());
+
+        // A Range only applies while the client's copy is still current, see If-Range
+        Optional<String> range = request.header(IF_RANGE).isPresent()
+                && !matchesETagStrongly(request.header(IF_RANGE).get(), eTag)
+                ? Optional.empty()
+                : request.header(RANGE);
+
+        long[] bounds = range.map(header -> parseRange(header, fileSize)).orElse(null);
+        if (bounds != null && bounds.length == 0) {
+            return status(REQUESTED_RANGE_NOT_SATISFIABLE).withHeader(CONTENT_RANGE, "bytes */" + fileSize);
+        }
+
+        Result result;
+        if (bounds == null) {
+            result = ok().sendEntity(new HttpEntity.Streamed(
+                    fileRange(path, 0, fileSize - 1), Optional.of(fileSize), contentType));
+        } else {
+            long length = bounds[1] - bounds[0] + 1;
+            result = status(PARTIAL_CONTENT).sendEntity(new HttpEntity.Streamed(
+                            fileRange(path, bounds[0], bounds[1]), Optional.of(length), contentType))
+                    .withHeader(CONTENT_RANGE, "bytes " + bounds[0] + "-" + bounds[1] + "/" + fileSize);
+        }
+
+        return result.withHeaders(
+                ETAG, eTag,
+                LAST_MODIFIED, lastModified,
+                CACHE_CONTROL, CACHE_CONTROL_IMMUTABLE,
+                ACCEPT_RANGES, "bytes");
+    }
+
+    /**
+     * Weak comparison against an If-None-Match list, as RFC 7232 asks for.
+     */
+    private static boolean matchesETag(Optional<String> header, String eTag) {
+        if (!header.isPresent()) {
+            return false;
+        }
+        for (String candidate : header.get().split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Strong comparison for If-Range (RFC 7233): a weak validator never matches, since the
+     * range would be spliced onto bytes that may differ.
+     */
+    private static boolean matchesETagStrongly(String header, String eTag) {
+        return header.trim().equals(eTag);
+    }
+
+    /**
+     * Parses a single {@code bytes=} range against a file of {@code fileSize} bytes.
+     *
+     * @return inclusive {@code [start, end]}, an empty array if the range can't be satisfied,
+     * or {@code null} if the header should be ignored (malformed or multiple ranges)
+     */
+    private static long[] parseRange(String header, long fileSize) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // Suffix range: the final N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, fileSize - suffix);
+                end = fileSize - 1;
+            } else {
+                start = Long.parseLong(first);
+                if (start >= fileSize) {
+                    return new long[0];
+                }
+                long requestedEnd = last.isEmpty() ? fileSize - 1 : Long.parseLong(last);
+                if (requestedEnd < start) {
+                    return null;
+                }
+                end = Math.min(requestedEnd, fileSize - 1);
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Streams bytes {@code [start, end]} of a file with positional FileChannel reads, so a
+     * range request seeks straight to its offset instead of reading the file from the start.
+     */
+    private static Source<ByteString, ?> fileRange(Path path, long start, long end) {
+        return Source.unfoldResource(
+                () -> FileChannel.open(path, StandardOpenOption.READ).position(start),
+                channel -> {
+                    long remaining = end + 1 - channel.position();
+                    if (remaining <= 0) {
+                        return Optional.empty();
+                    }
+                    ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(CHUNK_SIZE, remaining));
+                    if (channel.read(buffer) < 0) {
+                        return Optional.empty();
+                    }
+                    buffer.flip();
+                    return Optional.of(ByteString.fromByteBuffer(buffer));
+                },
+                FileChannel::close);
+    }
+
+}
@@ -1,15 +1,22 @@
 package controllers;
 
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.encentral.entities.JpaProcessedImage;
+import com.encentral.image_inverter.impl.BatchUploadResult;
 import com.encentral.image_inverter.impl.ImageProcessingService;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import parsers.BatchImageBodyParser;
+import parsers.StreamingImageBodyParser;
 import play.libs.Json;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Result;
 
 import javax.inject.Inject;
-import java.io.File;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
@@ -22,9 +29,11 @@ public class ImageUploadController extends Controller {
         this.imageProcessingService = imageProcessingService;
     }
 
+    // The image is inverted and saved while the body is parsed, see StreamingImageBodyParser
+    @BodyParser.Of(StreamingImageBodyParser.class)
     public CompletionStage<Result> uploadImage() {
         Http.Request request = request(); // get the current Http.Request
-        Http.MultipartFormData<File> body = request.body().asMultipartFormData();
+        Http.MultipartFormData<BatchUploadResult> body = request.body().asMultipartFormData();
 
         if (body == null) {
             return CompletableFuture.completedFuture(
@@ -32,7 +41,7 @@ public class ImageUploadController extends Controller {
             );
         }
 
-        Http.MultipartFormData.FilePart<File> filePart = body.getFile("image");
+        Http.MultipartFormData.FilePart<BatchUploadResult> filePart = body.getFile(StreamingImageBodyParser.IMAGE_PART);
 
         if (filePart == null) {
             return CompletableFuture.completedFuture(
@@ -40,30 +49,61 @@ public class ImageUploadController extends Controller {
             );
         }
 
-        File file = filePart.getFile();
-        String fileName = filePart.getFilename();
-        String contentType = filePart.getContentType();
+        BatchUploadResult result = filePart.getFile();
 
-        // Validate content type
-        if (contentType == null || !contentType.startsWith("image/")) {
+        // Validate content type, non-image parts are discarded by the parser
+        if (result == null) {
             return CompletableFuture.completedFuture(
                     badRequest(createErrorResponse("File must be an image"))
             );
         }
 
-        return imageProcessingService.processAndSaveImage(file, fileName)
-                .thenApply(processedImage -> {
-                    ObjectNode response = Json.newObject();
-                    response.put("id", processedImage.getId().toString());
-                    response.put("originalFileName", processedImage.getOriginalFileName());
-                    response.put("fileSize", processedImage.getFileSize());
-                    response.put("createdAt", processedImage.getCreatedAt().toString());
-                    response.put("message", "Image processed successfully");
-                    return created(response);
-                })
-                .exceptionally(throwable -> internalServerError(
-                        createErrorResponse("Failed to process image: " + throwable.getMessage())
-                ));
+        if (!result.isSuccessful()) {
+            return CompletableFuture.completedFuture(
+                    internalServerError(createErrorResponse(result.getError()))
+            );
+        }
+
+        JpaProcessedImage processedImage = result.getImage();
+        ObjectNode response = Json.newObject();
+        response.put("id", processedImage.getId().toString());
+        response.put("originalFileName", processedImage.getOriginalFileName());
+        response.put("fileSize", processedImage.getFileSize());
+        response.put("createdAt", processedImage.getCreatedAt().toString());
+        response.put("message", "Image processed successfully");
+        return CompletableFuture.completedFuture(created(response));
+    }
+
+    /**
+     * Accepts any number of image parts and streams back one JSON line per file as soon as
+     * its row is saved, in completion order rather than upload order. The response starts
+     * while the rest of the upload is still arriving, see BatchImageBodyParser.
+     */
+    @BodyParser.Of(BatchImageBodyParser.class)
+    @SuppressWarnings("unchecked")
+    public Result uploadBatch() {
+        Source<CompletionStage<BatchUploadResult>, NotUsed> results = request().body().as(Source.class);
+
+        Source<ByteString, ?> lines = imageProcessingService.saveBatch(results)
+                .map(result -> ByteString.fromString(Json.stringify(createBatchLine(result)) + "\n"))
+                .orElse(Source.single(ByteString.fromString(
+                        Json.stringify(createErrorResponse("No files uploaded")) + "\n")));
+        return ok().chunked(lines).as("application/x-ndjson");
+    }
+
+    private JsonNode createBatchLine(BatchUploadResult result) {
+        ObjectNode line = Json.newObject();
+        line.put("fileName", result.getFileName());
+        if (!result.isSuccessful()) {
+            line.put("error", result.getError());
+            return line;
+        }
+        JpaProcessedImage processedImage = result.getImage();
+        line.put("id", processedImage.getId().toString());
+        line.put("originalFileName", processedImage.getOriginalFileName());
+        line.put("fileSize", processedImage.getFileSize());
+        line.put("createdAt", processedImage.getCreatedAt().toString());
+        return line;
     }
 
     private JsonNode createErrorResponse(String message) {
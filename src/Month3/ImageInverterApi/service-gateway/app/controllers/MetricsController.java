@@ -0,0 +1,27 @@
+package controllers;
+
+import com.encentral.image_inverter.impl.ImageMetrics;
+import io.prometheus.client.exporter.common.TextFormat;
+import play.mvc.Controller;
+import play.mvc.Result;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class MetricsController extends Controller {
+
+    private final ImageMetrics metrics;
+
+    @Inject
+    public MetricsController(ImageMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Prometheus text exposition format, for scraping
+    public Result metrics() throws IOException {
+        StringWriter writer = new StringWriter();
+        TextFormat.write004(writer, metrics.getRegistry().metricFamilySamples());
+        return ok(writer.toString()).as(TextFormat.CONTENT_TYPE_004);
+    }
+}
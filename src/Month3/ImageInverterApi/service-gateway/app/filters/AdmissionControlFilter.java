@@ -0,0 +1,143 @@
+package filters;
+
+import akka.stream.Materializer;
+import com.encentral.image_inverter.impl.ImageMetrics;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+import io.prometheus.client.Counter;
+import play.libs.Json;
+import play.mvc.Filter;
+import play.mvc.Http;
+import play.mvc.Http.RequestHeader;
+import play.mvc.Result;
+import play.mvc.Results;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Admission control for the upload routes: each client, identified by its IP address or, when
+ * {@code image.admission.key-header} is set, by that header, gets a {@link TokenBucket} of {@code image.admission.requests-per-second}
+ * with bursts of {@code image.admission.burst}, and at most
+ * {@code image.admission.max-concurrent} uploads are let through at once across all clients.
+ * <p>
+ * Filters run before the action's body parser, so a refused upload is answered without its
+ * multipart body being read.
+ */
+@Singleton
+public class AdmissionControlFilter extends Filter {
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final Set<String> paths;
+    private final String keyHeader;
+    private final double requestsPerSecond;
+    private final int burst;
+    private final int maxClients;
+    private final Semaphore concurrency;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+    private final Counter rejected;
+
+    @Inject
+    public AdmissionControlFilter(Materializer mat, Config config, ImageMetrics metrics) {
+        super(mat);
+        this.enabled = config.getBoolean("image.admission.enabled");
+        this.paths = new HashSet<>(config.getStringList("image.admission.paths"));
+        this.keyHeader = config.getString("image.admission.key-header");
+        this.requestsPerSecond = config.getDouble("image.admission.requests-per-second");
+        this.burst = config.getInt("image.admission.burst");
+        this.maxClients = config.getInt("image.admission.max-clients");
+        int maxConcurrent = config.getInt("image.admission.max-concurrent");
+        this.concurrency = new Semaphore(maxConcurrent);
+
+        this.rejected = Counter.build()
+                .name("http_requests_rejected_total")
+                .help("Uploads refused by admission control, by reason.")
+                .labelNames("reason")
+                .register(metrics.getRegistry());
+        metrics.registerGauge("http_admitted_in_flight",
+                "Uploads admitted and not yet answered.",
+                () -> maxConcurrent - concurrency.availablePermits());
+        metrics.registerGauge("http_rate_limited_clients",
+                "Clients with a token bucket that has not refilled yet.", buckets::size);
+    }
+
+    @Override
+    public CompletionStage<Result> apply(
+            Function<RequestHeader, CompletionStage<Result>> next,
+            RequestHeader requestHeader) {
+
+        if (!enabled || !"POST".equals(requestHeader.method()) || !paths.contains(requestHeader.path())) {
+            return next.apply(requestHeader);
+        }
+
+        long now = System.nanoTime();
+        TokenBucket bucket = bucketFor(clientKey(requestHeader), now);
+        if (!bucket.tryAcquire(now)) {
+            rejected.labels("rate_limit").inc();
+            long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(bucket.nanosUntilAvailable(now) + 999_999_999L));
+            return CompletableFuture.completedFuture(
+                    reject(Http.Status.TOO_MANY_REQUESTS, "Too many uploads, slow down", retryAfter));
+        }
+
+        if (!concurrency.tryAcquire()) {
+            rejected.labels("concurrency").inc();
+            return CompletableFuture.completedFuture(
+                    reject(Http.Status.SERVICE_UNAVAILABLE, "Server is busy, try again shortly", 1));
+        }
+        CompletionStage<Result> result;
+        try {
+            result = next.apply(requestHeader);
+        } catch (RuntimeException e) {
+            concurrency.release();
+            throw e;
+        }
+        // Held until the response headers are ready, which for single uploads is after processing
+        return result.whenComplete((ignored, error) -> concurrency.release());
+    }
+
+    private String clientKey(RequestHeader requestHeader) {
+        // Nothing here checks the header, so it is only trusted when configured
+        if (keyHeader.isEmpty()) {
+            return "ip:" + requestHeader.remoteAddress();
+        }
+        return requestHeader.header(keyHeader)
+                .map(key -> "key:" + key)
+                .orElseGet(() -> "ip:" + requestHeader.remoteAddress());
+    }
+
+    private TokenBucket bucketFor(String clientKey, long now) {
+        if (buckets.size() >= maxClients) {
+            sweep(now);
+        }
+        return buckets.computeIfAbsent(clientKey, key -> new TokenBucket(requestsPerSecond, burst, now));
+    }
+
+    /**
+     * Forgets clients whose bucket has refilled; they would get a full one again anyway.
+     * Runs at most once a second, however many clients arrive while the map is at its limit.
+     */
+    private void sweep(long now) {
+        long last = lastSweep.get();
+        if (now - last >= SWEEP_INTERVAL_NANOS && lastSweep.compareAndSet(last, now)) {
+            buckets.values().removeIf(bucket -> bucket.isFull(now));
+        }
+    }
+
+    private static Result reject(int status, String message, long retryAfterSeconds) {
+        ObjectNode error = Json.newObject().put("error", message);
+        return Results.status(status, error).withHeader(Http.HeaderNames.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    }
+}
@@ -8,19 +8,27 @@ import play.mvc.EssentialFilter;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 @Singleton
 public class Filters extends DefaultHttpFilters {
 
     @Inject
-    public Filters(EnabledFilters enabledFilters, CORSFilter corsFilter) {
-        super(combine(enabledFilters.asJava().getFilters(), corsFilter.asJava()));
+    public Filters(EnabledFilters enabledFilters, CORSFilter corsFilter, RequestTimingFilter timingFilter,
+                   AdmissionControlFilter admissionControlFilter) {
+        super(combine(timingFilter.asJava(), enabledFilters.asJava().getFilters(),
+                corsFilter.asJava(), admissionControlFilter.asJava()));
     }
 
-    private static List<EssentialFilter> combine(List<EssentialFilter> filters, EssentialFilter toAppend) {
-        List<EssentialFilter> combinedFilters = new ArrayList<>(filters);
-        combinedFilters.add(toAppend);
+    // The timing filter goes first, so the time spent in the other filters is counted too.
+    // Admission control goes after CORS, so browsers can read the uploads it refuses.
+    private static List<EssentialFilter> combine(EssentialFilter first, List<EssentialFilter> filters,
+                                                 EssentialFilter... toAppend) {
+        List<EssentialFilter> combinedFilters = new ArrayList<>();
+        combinedFilters.add(first);
+        combinedFilters.addAll(filters);
+        combinedFilters.addAll(Arrays.asList(toAppend));
         return combinedFilters;
     }
 }
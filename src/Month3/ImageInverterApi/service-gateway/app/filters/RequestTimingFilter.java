@@ -0,0 +1,55 @@
+package filters;
+
+import akka.stream.Materializer;
+import com.encentral.image_inverter.impl.ImageMetrics;
+import io.prometheus.client.Histogram;
+import play.api.routing.HandlerDef;
+import play.mvc.Filter;
+import play.mvc.Http.RequestHeader;
+import play.mvc.Result;
+import play.routing.Router;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Times every request, from the filter chain to the response headers, into
+ * {@code http_request_duration_seconds}. Requests are labelled with their route pattern
+ * rather than their path, so ids in the URL don't make a series each.
+ */
+@Singleton
+public class RequestTimingFilter extends Filter {
+
+    private final Histogram requestSeconds;
+
+    @Inject
+    public RequestTimingFilter(Materializer mat, ImageMetrics metrics) {
+        super(mat);
+        this.requestSeconds = Histogram.build()
+                .name("http_request_duration_seconds")
+                .help("Time taken to produce the response headers, by route and status.")
+                .labelNames("method", "route", "status")
+                .buckets(0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60)
+                .register(metrics.getRegistry());
+    }
+
+    @Override
+    public CompletionStage<Result> apply(
+            Function<RequestHeader, CompletionStage<Result>> next,
+            RequestHeader requestHeader) {
+
+        long startTime = System.nanoTime();
+        String route = requestHeader.attrs().getOptional(Router.Attrs.HANDLER_DEF)
+                .map(HandlerDef::path)
+                .orElse("unmatched");
+
+        return next.apply(requestHeader).whenComplete((result, error) -> {
+            String status = error == null ? String.valueOf(result.status()) : "error";
+            requestSeconds.labels(requestHeader.method(), route, status)
+                    .observe((System.nanoTime() - startTime) / 1e9);
+        });
+    }
+
+}
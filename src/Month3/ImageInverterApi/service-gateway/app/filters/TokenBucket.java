@@ -0,0 +1,57 @@
+package filters;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket kept as a single atomic timestamp, in the style of the generic cell rate
+ * algorithm: rather than a token count that has to be refilled, it stores the time at which
+ * the bucket will be full again. Taking a token pushes that time forward by one refill
+ * interval, and is refused if it would move more than a full burst past now. Updates are a
+ * compare-and-set loop, so concurrent requests never block each other.
+ */
+public class TokenBucket {
+
+    private final long refillIntervalNanos;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    /**
+     * @param ratePerSecond tokens added per second
+     * @param burst         tokens the bucket holds when full
+     */
+    public TokenBucket(double ratePerSecond, int burst, long nowNanos) {
+        this.refillIntervalNanos = (long) (1_000_000_000L / ratePerSecond);
+        this.burstNanos = refillIntervalNanos * burst;
+        this.fullAt = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * @return whether a token was taken
+     */
+    public boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, nowNanos) + refillIntervalNanos;
+            if (next - nowNanos > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * How long until a token will be available, zero if one is now.
+     */
+    public long nanosUntilAvailable(long nowNanos) {
+        return Math.max(0, fullAt.get() + refillIntervalNanos - burstNanos - nowNanos);
+    }
+
+    /**
+     * Whether the bucket has refilled completely, so forgetting it loses nothing.
+     */
+    public boolean isFull(long nowNanos) {
+        return fullAt.get() - nowNanos <= 0;
+    }
+}
@@ -0,0 +1,172 @@
+package parsers;
+
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.StreamLimitReachedException;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import com.encentral.image_inverter.impl.BatchUploadResult;
+import com.encentral.image_inverter.impl.ImageProcessingService;
+import com.encentral.image_inverter.impl.ProcessingPermits;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.typesafe.config.Config;
+import play.api.http.HttpErrorHandler;
+import play.core.parsers.Multipart;
+import play.libs.F;
+import play.libs.streams.Accumulator;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static scala.compat.java8.OptionConverters.toJava;
+
+/**
+ * Multipart parser for batch uploads. Every image part is inverted as it arrives, like
+ * {@link StreamingImageBodyParser}, but at most {@code image.batch.concurrency} images are
+ * processed at once across all batch uploads: the next part is not read off the socket until
+ * a permit frees up.
+ * <p>
+ * The body is ready as soon as the request arrives. It is a source of each part's pending
+ * outcome, unsaved, fed while the rest of the upload is still being read, so the action can
+ * answer with results as files finish; see {@link ImageProcessingService#saveBatch}. Uploads
+ * larger than {@code image.batch.max-request-size} are refused, or cut short with a final
+ * error line when they had no Content-Length.
+ */
+public class BatchImageBodyParser implements BodyParser<Source<CompletionStage<BatchUploadResult>, NotUsed>> {
+
+    // How long the decoder waits for the next chunk of a slow upload
+    private static final Duration READ_TIMEOUT = Duration.ofSeconds(30);
+    // Outcomes waiting for the response to take them
+    private static final int RESULT_BUFFER_SIZE = 256;
+
+    private final Materializer materializer;
+    private final HttpErrorHandler errorHandler;
+    private final long maxMemoryBuffer;
+    private final long maxRequestSize;
+    private final ImageProcessingService imageProcessingService;
+    private final ProcessingPermits permits;
+
+    @Inject
+    public BatchImageBodyParser(Materializer materializer, Config config, HttpErrorHandler errorHandler,
+                                ImageProcessingService imageProcessingService, ProcessingPermits permits) {
+        this.materializer = materializer;
+        this.errorHandler = errorHandler;
+        // Only form fields are buffered in memory, file parts are streamed into processing
+        this.maxMemoryBuffer = config.getBytes("play.http.parser.maxMemoryBuffer");
+        this.maxRequestSize = config.getBytes("image.batch.max-request-size");
+        this.imageProcessingService = imageProcessingService;
+        this.permits = permits;
+    }
+
+    @Override
+    public Accumulator<ByteString, F.Either<Result, Source<CompletionStage<BatchUploadResult>, NotUsed>>> apply(
+            Http.RequestHeader request) {
+        if (!request.contentType().map("multipart/form-data"::equalsIgnoreCase).orElse(false)) {
+            return Accumulator.done(F.Either.Left(Results.badRequest(errorResponse("No multipart data found"))));
+        }
+        long contentLength = request.header(Http.HeaderNames.CONTENT_LENGTH).map(Long::parseLong).orElse(-1L);
+        if (contentLength > maxRequestSize) {
+            return Accumulator.done(F.Either.Left(Results.status(Http.Status.REQUEST_ENTITY_TOO_LARGE,
+                    errorResponse("Upload exceeds " + maxRequestSize + " bytes"))));
+        }
+
+        Pair<SourceQueueWithComplete<CompletionStage<BatchUploadResult>>, Source<CompletionStage<BatchUploadResult>, NotUsed>> results =
+                Source.<CompletionStage<BatchUploadResult>>queue(RESULT_BUFFER_SIZE, OverflowStrategy.backpressure())
+                        .preMaterialize(materializer);
+        PartPublisher parts = new PartPublisher(results.first());
+
+        // The multipart parser keeps reading after the body is handed to the action
+        Sink<ByteString, CompletionStage<F.Either<Result, Source<CompletionStage<BatchUploadResult>, NotUsed>>>> sink =
+                Flow.of(ByteString.class)
+                        .limitWeighted(maxRequestSize, bytes -> (long) bytes.size())
+                        .toMat(parts.apply(request).toSink(), Keep.right())
+                        .mapMaterializedValue(parsed -> {
+                            parsed.whenComplete(parts::finish);
+                            return CompletableFuture.completedFuture(F.Either.Right(results.second()));
+                        });
+        return Accumulator.fromSink(sink);
+    }
+
+    private static JsonNode errorResponse(String message) {
+        // Qualified, BodyParser.Json would shadow an import
+        return play.libs.Json.newObject().put("error", message);
+    }
+
+    /**
+     * Parses one request, offering each part's outcome to the results queue as the part starts.
+     */
+    private class PartPublisher extends BodyParser.DelegatingMultipartFormDataBodyParser<Void> {
+
+        private final SourceQueueWithComplete<CompletionStage<BatchUploadResult>> queue;
+        // A backpressured queue takes one offer at a time, so each waits for the one before
+        private CompletionStage<?> lastOffer = CompletableFuture.completedFuture(null);
+
+        PartPublisher(SourceQueueWithComplete<CompletionStage<BatchUploadResult>> queue) {
+            super(materializer, maxMemoryBuffer, errorHandler);
+            this.queue = queue;
+        }
+
+        @Override
+        public Function<Multipart.FileInfo, Accumulator<ByteString, Http.MultipartFormData.FilePart<Void>>> createFilePartHandler() {
+            return fileInfo -> {
+                String partName = fileInfo.partName();
+                String fileName = fileInfo.fileName();
+                String contentType = toJava(fileInfo.contentType()).orElse(null);
+
+                if (contentType == null || !contentType.startsWith("image/")) {
+                    publish(CompletableFuture.completedFuture(BatchUploadResult.failed(fileName, "File must be an image")));
+                    return Accumulator.fromSink(Sink.<ByteString>ignore().mapMaterializedValue(done ->
+                            done.thenApply(ignored -> new Http.MultipartFormData.FilePart<Void>(
+                                    partName, fileName, contentType, null))));
+                }
+
+                return Accumulator.flatten(permits.acquire().thenApply(ignored ->
+                        Accumulator.fromSink(StreamConverters.asInputStream(READ_TIMEOUT).mapMaterializedValue(input -> {
+                            CompletionStage<BatchUploadResult> result = imageProcessingService.processImage(input, fileName)
+                                    .handle((image, error) -> error == null
+                                            ? BatchUploadResult.processed(fileName, image)
+                                            : BatchUploadResult.failed(fileName, "Image processing failed"));
+                            result.whenComplete((outcome, error) -> permits.release());
+                            publish(result);
+                            // Completes as soon as the part is handed over, so the next part can be read
+                            return CompletableFuture.completedFuture(new Http.MultipartFormData.FilePart<Void>(
+                                    partName, fileName, contentType, null));
+                        }))), materializer);
+            };
+        }
+
+        private synchronized void publish(CompletionStage<BatchUploadResult> result) {
+            lastOffer = lastOffer.thenCompose(ignored -> queue.offer(result));
+        }
+
+        /**
+         * Ends the results once the upload has been read, with a last line if it was cut short.
+         */
+        private synchronized void finish(F.Either<Result, Http.MultipartFormData<Void>> parsed, Throwable error) {
+            if (error != null) {
+                boolean tooLarge = error instanceof StreamLimitReachedException
+                        || error.getCause() instanceof StreamLimitReachedException;
+                publish(CompletableFuture.completedFuture(BatchUploadResult.failed(null, tooLarge
+                        ? "Upload exceeds " + maxRequestSize + " bytes, later files were not read"
+                        : "Failed to read the upload")));
+            } else if (parsed.left.isPresent()) {
+                publish(CompletableFuture.completedFuture(BatchUploadResult.failed(null, "Invalid multipart upload")));
+            }
+            lastOffer.whenComplete((ignored, offerError) -> queue.complete());
+        }
+    }
+}
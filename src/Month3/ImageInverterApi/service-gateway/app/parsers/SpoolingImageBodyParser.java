@@ -0,0 +1,100 @@
+package parsers;
+
+import akka.stream.Materializer;
+import akka.stream.javadsl.FileIO;
+import akka.stream.javadsl.Sink;
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.encentral.image_inverter.impl.ImageJobQueue;
+import com.encentral.image_inverter.impl.ProcessedImageStore;
+import com.typesafe.config.Config;
+import play.api.http.HttpErrorHandler;
+import play.core.parsers.Multipart;
+import play.libs.F;
+import play.libs.streams.Accumulator;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+import static scala.compat.java8.OptionConverters.toJava;
+
+/**
+ * Multipart parser for queued uploads. The {@code image} part is written as-is to
+ * uploads/spool, to be processed later by {@link ImageJobQueue}; parts that are not an image
+ * are discarded and come through with a {@code null} file. When the queue is already full the
+ * request is answered with 429 before its body is read.
+ */
+public class SpoolingImageBodyParser extends BodyParser.DelegatingMultipartFormDataBodyParser<Path> {
+
+    public static final String IMAGE_PART = "image";
+
+    private final ImageJobQueue jobQueue;
+    private final ProcessedImageStore store;
+
+    @Inject
+    public SpoolingImageBodyParser(Materializer materializer, Config config, HttpErrorHandler errorHandler,
+                                   ImageJobQueue jobQueue, ProcessedImageStore store) {
+        super(materializer, config.getBytes("play.http.parser.maxDiskBuffer"), errorHandler);
+        this.jobQueue = jobQueue;
+        this.store = store;
+    }
+
+    @Override
+    public Accumulator<ByteString, F.Either<Result, Http.MultipartFormData<Path>>> apply(Http.RequestHeader request) {
+        if (jobQueue.isSaturated()) {
+            return Accumulator.done(F.Either.Left(queueFull()));
+        }
+        return super.apply(request);
+    }
+
+    @Override
+    public Function<Multipart.FileInfo, Accumulator<ByteString, Http.MultipartFormData.FilePart<Path>>> createFilePartHandler() {
+        return fileInfo -> {
+            String partName = fileInfo.partName();
+            String fileName = fileInfo.fileName();
+            String contentType = toJava(fileInfo.contentType()).orElse(null);
+
+            if (!IMAGE_PART.equals(partName) || contentType == null || !contentType.startsWith("image/")) {
+                return Accumulator.fromSink(Sink.<ByteString>ignore().mapMaterializedValue(done ->
+                        done.thenApply(ignored -> new Http.MultipartFormData.FilePart<Path>(
+                                partName, fileName, contentType, null))));
+            }
+
+            Path spoolFile;
+            try {
+                spoolFile = store.newSpoolFile();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to create spool file", e);
+            }
+            return Accumulator.fromSink(FileIO.toPath(spoolFile).mapMaterializedValue(ioResult ->
+                    ioResult.thenApply(written -> {
+                        if (!written.wasSuccessful()) {
+                            deleteQuietly(spoolFile);
+                            throw new RuntimeException("Failed to spool upload", written.getError());
+                        }
+                        return new Http.MultipartFormData.FilePart<>(partName, fileName, contentType, spoolFile);
+                    })));
+        };
+    }
+
+    public static Result queueFull() {
+        // play.libs.Json is shadowed here by BodyParser.Json
+        ObjectNode error = play.libs.Json.newObject().put("error", "Image queue is full, try again later");
+        return Results.status(Http.Status.TOO_MANY_REQUESTS, error).withHeader(Http.HeaderNames.RETRY_AFTER, "5");
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // Left behind in uploads/spool, harmless
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package parsers;
+
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import com.encentral.image_inverter.impl.BatchUploadResult;
+import com.encentral.image_inverter.impl.ImageProcessingService;
+import com.typesafe.config.Config;
+import play.api.http.HttpErrorHandler;
+import play.core.parsers.Multipart;
+import play.libs.streams.Accumulator;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import static scala.compat.java8.OptionConverters.toJava;
+
+/**
+ * Multipart parser for image uploads that pipes the {@code image} part straight into
+ * {@link ImageProcessingService} as the bytes arrive, instead of buffering it to a temp file
+ * first. The parsed part carries the saved image, or why it could not be processed, so the
+ * controller can answer with its own error; parts that are not an image are discarded and
+ * come through with a {@code null} file.
+ */
+public class StreamingImageBodyParser extends BodyParser.DelegatingMultipartFormDataBodyParser<BatchUploadResult> {
+
+    public static final String IMAGE_PART = "image";
+
+    // How long the decoder waits for the next chunk of a slow upload
+    private static final Duration READ_TIMEOUT = Duration.ofSeconds(30);
+
+    private final ImageProcessingService imageProcessingService;
+
+    @Inject
+    public StreamingImageBodyParser(Materializer materializer, Config config, HttpErrorHandler errorHandler,
+                                    ImageProcessingService imageProcessingService) {
+        super(materializer, config.getBytes("play.http.parser.maxDiskBuffer"), errorHandler);
+        this.imageProcessingService = imageProcessingService;
+    }
+
+    @Override
+    public Function<Multipart.FileInfo, Accumulator<ByteString, Http.MultipartFormData.FilePart<BatchUploadResult>>> createFilePartHandler() {
+        return fileInfo -> {
+            String partName = fileInfo.partName();
+            String fileName = fileInfo.fileName();
+            String contentType = toJava(fileInfo.contentType()).orElse(null);
+
+            if (!IMAGE_PART.equals(partName) || contentType == null || !contentType.startsWith("image/")) {
+                return Accumulator.fromSink(Sink.<ByteString>ignore().mapMaterializedValue(done ->
+                        done.thenApply(ignored -> new Http.MultipartFormData.FilePart<BatchUploadResult>(
+                                partName, fileName, contentType, null))));
+            }
+
+            return Accumulator.fromSink(StreamConverters.asInputStream(READ_TIMEOUT).mapMaterializedValue(input ->
+                    imageProcessingService.processAndSaveImage(input, fileName)
+                            .handle((processedImage, error) -> error == null
+                                    ? BatchUploadResult.processed(fileName, processedImage)
+                                    : BatchUploadResult.failed(fileName, "Failed to process image: " + rootMessage(error)))
+                            .thenApply(result -> new Http.MultipartFormData.FilePart<>(
+                                    partName, fileName, contentType, result))
+                            .toCompletableFuture()));
+        };
+    }
+
+    private static String rootMessage(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null
+                ? error.getCause().getMessage()
+                : error.getMessage();
+    }
+}